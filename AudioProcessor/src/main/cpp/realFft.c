@@ -0,0 +1,128 @@
+#include <math.h>
+#include "realFft.h"
+
+void fftTablesInit(FftTables *tables, long size) {
+    long half = size / 2;
+    long i, bits, j, k;
+
+    if (tables->size == size) {
+        return;
+    }
+    for (i = 0; i < size; i++) {
+        tables->window[i] = (float) (-.5 * cos(2. * M_PI * (double) i / (double) size) + .5);
+    }
+    for (i = 0; i < half; i++) {
+        tables->cosTable[i] = (float) cos(2. * M_PI * (double) i / (double) size);
+        tables->sinTable[i] = (float) sin(2. * M_PI * (double) i / (double) size);
+    }
+    for (bits = 0; (1L << bits) < half; bits++) {
+    }
+    for (i = 0; i < half; i++) {
+        for (j = 0, k = 0; k < bits; k++) {
+            j |= ((i >> k) & 1) << (bits - 1 - k);
+        }
+        tables->bitReverse[i] = (int) j;
+    }
+    tables->size = size;
+}
+
+// in place complex FFT of N / 2 points, sign -1 is forward, 1 is inverse, unscaled.
+static void complexFft(const FftTables *tables, float *data, int sign) {
+    long n = tables->size / 2;
+    long i, j, len, k;
+
+    for (i = 0; i < n; i++) {
+        j = tables->bitReverse[i];
+        if (i < j) {
+            float re = data[2 * i];
+            float im = data[2 * i + 1];
+            data[2 * i] = data[2 * j];
+            data[2 * i + 1] = data[2 * j + 1];
+            data[2 * j] = re;
+            data[2 * j + 1] = im;
+        }
+    }
+    for (len = 2; len <= n; len <<= 1) {
+        long half = len >> 1;
+        // twiddle of N / 2 points FFT with index k is the N point one with index 2 * k
+        long stride = 2 * (n / len);
+        for (i = 0; i < n; i += len) {
+            for (k = 0; k < half; k++) {
+                float wr = tables->cosTable[k * stride];
+                float wi = sign * tables->sinTable[k * stride];
+                float *a = data + 2 * (i + k);
+                float *b = data + 2 * (i + k + half);
+                float tr = b[0] * wr - b[1] * wi;
+                float ti = b[0] * wi + b[1] * wr;
+                b[0] = a[0] - tr;
+                b[1] = a[1] - ti;
+                a[0] += tr;
+                a[1] += ti;
+            }
+        }
+    }
+}
+
+void realFft(const FftTables *tables, float *buffer) {
+    long n = tables->size / 2;
+    long k;
+    float re, im;
+
+    complexFft(tables, buffer, -1);
+
+    re = buffer[0];
+    im = buffer[1];
+    buffer[0] = re + im;
+    buffer[1] = 0;
+    buffer[2 * n] = re - im;
+    buffer[2 * n + 1] = 0;
+    for (k = 1; k <= n / 2; k++) {
+        float *zk = buffer + 2 * k;
+        float *zn = buffer + 2 * (n - k);
+        // even and odd parts
+        float er = (zk[0] + zn[0]) * .5f;
+        float ei = (zk[1] - zn[1]) * .5f;
+        float or = (zk[1] + zn[1]) * .5f;
+        float oi = (zn[0] - zk[0]) * .5f;
+        // times exp(-2 pi i k / N)
+        float c = tables->cosTable[k];
+        float s = tables->sinTable[k];
+        float tr = or * c + oi * s;
+        float ti = oi * c - or * s;
+        zk[0] = er + tr;
+        zk[1] = ei + ti;
+        zn[0] = er - tr;
+        zn[1] = ti - ei;
+    }
+}
+
+void realInverseFft(const FftTables *tables, float *buffer) {
+    long n = tables->size / 2;
+    long k;
+    float re, nyquist;
+
+    re = buffer[0];
+    nyquist = buffer[2 * n];
+    buffer[0] = (re + nyquist) * .5f;
+    buffer[1] = (re - nyquist) * .5f;
+    for (k = 1; k <= n / 2; k++) {
+        float *xk = buffer + 2 * k;
+        float *xn = buffer + 2 * (n - k);
+        float er = (xk[0] + xn[0]) * .5f;
+        float ei = (xk[1] - xn[1]) * .5f;
+        float dr = (xk[0] - xn[0]) * .5f;
+        float di = (xk[1] + xn[1]) * .5f;
+        // odd part, divided by exp(-2 pi i k / N)
+        float c = tables->cosTable[k];
+        float s = tables->sinTable[k];
+        float or = dr * c - di * s;
+        float oi = dr * s + di * c;
+        // even + i * odd, and its mirror
+        xk[0] = er - oi;
+        xk[1] = ei + or;
+        xn[0] = er + oi;
+        xn[1] = or - ei;
+    }
+
+    complexFft(tables, buffer, 1);
+}
@@ -0,0 +1,36 @@
+// Real input FFT with cached tables, replaces the complex smbFft of smbPitchShift.c, which
+// recomputed its trig terms on every call and ran on zero padded real input.
+//
+// An N point real FFT is done as an N/2 point complex FFT of the even/odd interleaved input,
+// followed by a split step, so it does half the work of the complex one.
+
+#ifndef REAL_FFT_H
+#define REAL_FFT_H
+
+#define MAX_FFT_SIZE 4096
+
+typedef struct {
+    // N, 0 if not built yet
+    long size;
+    // periodic Hann window of N points
+    float window[MAX_FFT_SIZE];
+    // cos and sin of 2 * pi * k / N, k < N / 2
+    float cosTable[MAX_FFT_SIZE / 2];
+    float sinTable[MAX_FFT_SIZE / 2];
+    // bit reversed index of the N / 2 point complex FFT
+    int bitReverse[MAX_FFT_SIZE / 2];
+} FftTables;
+
+// build tables for size N, a power of 2 no larger than MAX_FFT_SIZE, no-op if already built.
+void fftTablesInit(FftTables *tables, long size);
+
+// in: N real samples in buffer[0, N).
+// out: bins 0 to N / 2 as interleaved re, im in buffer[0, N + 2), imaginary parts of bin 0
+// and bin N / 2 are 0, buffer must have N + 2 floats.
+void realFft(const FftTables *tables, float *buffer);
+
+// inverse of realFft, scaled by N / 2, imaginary parts of bin 0 and bin N / 2 are ignored.
+// out: N real samples in buffer[0, N).
+void realInverseFft(const FftTables *tables, float *buffer);
+
+#endif
@@ -43,34 +43,91 @@
 *
 *****************************************************************************/
 
+#include <stdint.h>
+#include <stdlib.h>
 #include <string.h>
 #include <math.h>
 #include <jni.h>
+#include "realFft.h"
 
 
 #define LOGI(...) \
   ((void)__android_log_print(ANDROID_LOG_INFO, "VoiceProcessor::", __VA_ARGS__))
 
+JNIEXPORT jlong JNICALL
+        Java_com_github_piasy_audioprocessor_NativePitchShifter_create(JNIEnv *env, jclass type);
+
+JNIEXPORT void JNICALL
+        Java_com_github_piasy_audioprocessor_NativePitchShifter_release(JNIEnv *env, jclass type,
+                                                                        jlong handle);
+
+JNIEXPORT void JNICALL
+        Java_com_github_piasy_audioprocessor_NativePitchShifter_process(JNIEnv *env, jclass type,
+                                                                        jlong handle,
+                                                                        jfloat ratio,
+                                                                        jbyteArray in_,
+                                                                        jint inOffset,
+                                                                        jbyteArray out_,
+                                                                        jint outOffset,
+                                                                        jint size,
+                                                                        jint sampleRate);
+
+JNIEXPORT void JNICALL
+        Java_com_github_piasy_audioprocessor_NativePitchShifter_processDirect(JNIEnv *env,
+                                                                              jclass type,
+                                                                              jlong handle,
+                                                                              jfloat ratio,
+                                                                              jobject in_,
+                                                                              jint inOffset,
+                                                                              jobject out_,
+                                                                              jint outOffset,
+                                                                              jint size,
+                                                                              jint sampleRate);
+
 JNIEXPORT void JNICALL
-        Java_com_github_piasy_audioprocessor_AudioProcessor_process(JNIEnv *env, jclass type,
-                                                                    jfloat ratio,
-                                                                    jbyteArray in_, jbyteArray out_,
-                                                                    jint size,
-                                                                    jint sampleRate,
-                                                                    jfloatArray floatInput_,
-                                                                    jfloatArray floatOutput_);
+        Java_com_github_piasy_audioprocessor_NativePitchShifter_processFloat(JNIEnv *env,
+                                                                             jclass type,
+                                                                             jlong handle,
+                                                                             jfloat ratio,
+                                                                             jfloatArray in_,
+                                                                             jint inOffset,
+                                                                             jfloatArray out_,
+                                                                             jint outOffset,
+                                                                             jint size,
+                                                                             jint sampleRate);
 
 // #define M_PI 3.14159265358979323846
 // #define MAX_FRAME_LENGTH 8192
-#define MAX_FRAME_LENGTH 4096    // tz
-
-void smbFft(float *fftBuffer, long fftFrameSize, long sign);
+#define MAX_FRAME_LENGTH MAX_FFT_SIZE    // tz
+
+// state of one pitch shifter, it used to be static arrays inside smbPitchShift, which made all
+// AudioProcessor instances share, and corrupt, the same state.
+typedef struct {
+    float gInFIFO[MAX_FRAME_LENGTH];
+    float gOutFIFO[MAX_FRAME_LENGTH];
+    float gFFTworksp[2 * MAX_FRAME_LENGTH];
+    float gLastPhase[MAX_FRAME_LENGTH / 2 + 1];
+    float gSumPhase[MAX_FRAME_LENGTH / 2 + 1];
+    float gOutputAccum[2 * MAX_FRAME_LENGTH];
+    float gAnaFreq[MAX_FRAME_LENGTH];
+    float gAnaMagn[MAX_FRAME_LENGTH];
+    float gSynFreq[MAX_FRAME_LENGTH];
+    float gSynMagn[MAX_FRAME_LENGTH];
+    long gRover;
+    // window and twiddles of current fftFrameSize
+    FftTables gTables;
+    // scratch of the 16 bit and float array paths, grows on demand
+    float *floatInput;
+    float *floatOutput;
+    long floatCapacity;
+} PitchShifter;
 
 // -----------------------------------------------------------------------------------------------------------------
 
 
-void smbPitchShift(float pitchShift, long numSampsToProcess, long fftFrameSize, long osamp,
-                   float sampleRate, float *indata, float *outdata)
+void smbPitchShift(PitchShifter *shifter, float pitchShift, long numSampsToProcess,
+                   long fftFrameSize, long osamp, float sampleRate, float *indata,
+                   float *outdata)
 /*
 	Routine smbPitchShift(). See top of file for explanation
 	Purpose: doing pitch shifting while maintaining duration using the Short
@@ -79,19 +136,21 @@ void smbPitchShift(float pitchShift, long numSampsToProcess, long fftFrameSize,
 */
 {
 
-    static float gInFIFO[MAX_FRAME_LENGTH];
-    static float gOutFIFO[MAX_FRAME_LENGTH];
-    static float gFFTworksp[2 * MAX_FRAME_LENGTH];
-    static float gLastPhase[MAX_FRAME_LENGTH / 2 + 1];
-    static float gSumPhase[MAX_FRAME_LENGTH / 2 + 1];
-    static float gOutputAccum[2 * MAX_FRAME_LENGTH];
-    static float gAnaFreq[MAX_FRAME_LENGTH];
-    static float gAnaMagn[MAX_FRAME_LENGTH];
-    static float gSynFreq[MAX_FRAME_LENGTH];
-    static float gSynMagn[MAX_FRAME_LENGTH];
-
-    static long gRover = JNI_FALSE, gInit = JNI_FALSE;
-    double magn, phase, tmp, window, real, imag;
+    float *gInFIFO = shifter->gInFIFO;
+    float *gOutFIFO = shifter->gOutFIFO;
+    float *gFFTworksp = shifter->gFFTworksp;
+    float *gLastPhase = shifter->gLastPhase;
+    float *gSumPhase = shifter->gSumPhase;
+    float *gOutputAccum = shifter->gOutputAccum;
+    float *gAnaFreq = shifter->gAnaFreq;
+    float *gAnaMagn = shifter->gAnaMagn;
+    float *gSynFreq = shifter->gSynFreq;
+    float *gSynMagn = shifter->gSynMagn;
+    long gRover = shifter->gRover;
+    FftTables *tables = &shifter->gTables;
+    const float *window;
+
+    double magn, phase, tmp, real, imag;
     double freqPerBin;
     double expct;        // expected phase difference tz
     long i, k, qpd, index, inFifoLatency, stepSize, fftFrameSize2;
@@ -103,19 +162,10 @@ void smbPitchShift(float pitchShift, long numSampsToProcess, long fftFrameSize,
     expct = 2. * M_PI * (double) stepSize / (double) fftFrameSize;
     inFifoLatency = fftFrameSize - stepSize;
     if (gRover == JNI_FALSE) gRover = inFifoLatency;
+    fftTablesInit(tables, fftFrameSize);
+    window = tables->window;
 
-    /* initialize our static arrays */
-    if (gInit == JNI_FALSE) {
-        memset(gInFIFO, 0, MAX_FRAME_LENGTH * sizeof(float));
-        memset(gOutFIFO, 0, MAX_FRAME_LENGTH * sizeof(float));
-        memset(gFFTworksp, 0, 2 * MAX_FRAME_LENGTH * sizeof(float));
-        memset(gLastPhase, 0, (MAX_FRAME_LENGTH / 2 + 1) * sizeof(float));
-        memset(gSumPhase, 0, (MAX_FRAME_LENGTH / 2 + 1) * sizeof(float));
-        memset(gOutputAccum, 0, 2 * MAX_FRAME_LENGTH * sizeof(float));
-        memset(gAnaFreq, 0, MAX_FRAME_LENGTH * sizeof(float));
-        memset(gAnaMagn, 0, MAX_FRAME_LENGTH * sizeof(float));
-        gInit = JNI_TRUE;
-    }
+    /* arrays are zeroed by calloc when the shifter is created */
 
     /* main processing loop */
     for (i = 0; i < numSampsToProcess; i++) {
@@ -147,23 +197,18 @@ void smbPitchShift(float pitchShift, long numSampsToProcess, long fftFrameSize,
             // the window is like a triangular hat that gets imposed over the sample buffer before its input to the fft
             // the size of the hat is the fftsize and it scales off the data at beginning and end of the buffer
 
-            // i think that the vDSP_ctoz function will accomplish the interleaving and complex formatting stuff below
-            // we would still need to do the windowing, but maybe there's an apple function for that too
+            // the window is cached in tables, and the real FFT takes the real samples directly,
+            // no re,im interleave is needed
 
             for (k = 0; k < fftFrameSize; k++) {
-                window = -.5 * cos(2. * M_PI * (double) k / (double) fftFrameSize) + .5;
-                gFFTworksp[2 * k] = gInFIFO[k] *
-                                    window;                // real part is winowed amplitude of samples
-                gFFTworksp[2 * k + 1] = 0.;                                // imag part is set to 0
-                //	NSLog(@"i: %d, k: %d, window: %f", i, k, window );
+                gFFTworksp[k] = gInFIFO[k] * window[k];
             }
 
 
             /* ***************** ANALYSIS ******************* */
             /* do transform */
-            // lets try replacing this with accelerate functions
 
-            smbFft(gFFTworksp, fftFrameSize, -1);
+            realFft(tables, gFFTworksp);
 
             /* this is the analysis step */
             // this is looping through the fft output bins in the frequency domain
@@ -256,16 +301,16 @@ void smbPitchShift(float pitchShift, long numSampsToProcess, long fftFrameSize,
                 gFFTworksp[2 * k + 1] = magn * sin(phase);
             }
 
-            /* zero negative frequencies */
-            for (k = fftFrameSize + 2; k < 2 * fftFrameSize; k++) gFFTworksp[k] = 0.;
-
             /* do inverse transform */
-            smbFft(gFFTworksp, fftFrameSize, 1);
+            // the complex inverse took the real part of the positive frequencies only, which
+            // counts bin 0 and bin N/2 half as much as a real inverse does
+            gFFTworksp[0] *= 2.;
+            gFFTworksp[fftFrameSize] *= 2.;
+            realInverseFft(tables, gFFTworksp);
 
             /* do windowing and add to output accumulator */
             for (k = 0; k < fftFrameSize; k++) {
-                window = -.5 * cos(2. * M_PI * (double) k / (double) fftFrameSize) + .5;
-                gOutputAccum[k] += 2. * window * gFFTworksp[2 * k] / (fftFrameSize2 * osamp);
+                gOutputAccum[k] += 2. * window[k] * gFFTworksp[k] / (fftFrameSize2 * osamp);
             }
             for (k = 0; k < stepSize; k++) gOutFIFO[k] = gOutputAccum[k];
 
@@ -280,106 +325,154 @@ void smbPitchShift(float pitchShift, long numSampsToProcess, long fftFrameSize,
             for (k = 0; k < inFifoLatency; k++) gInFIFO[k] = gInFIFO[k + stepSize];
         }
     }
+    shifter->gRover = gRover;
 }
 
-void smbFft(float *fftBuffer, long fftFrameSize, long sign)
-/*
-	FFT routine, (C)1996 S.M.Bernsee. Sign = -1 is FFT, 1 is iFFT (inverse)
-	Fills fftBuffer[0...2*fftFrameSize-1] with the Fourier transform of the
-	time domain data in fftBuffer[0...2*fftFrameSize-1]. The FFT array takes
-	and returns the cosine and sine parts in an interleaved manner, ie.
-	fftBuffer[0] = cosPart[0], fftBuffer[1] = sinPart[0], asf. fftFrameSize
-	must be a power of 2. It expects a complex input signal (see footnote 2),
-	ie. when working with 'common' audio signals our input signal has to be
-	passed as {in[0],0.,in[1],0.,in[2],0.,...} asf. In that case, the transform
-	of the frequencies of interest is in fftBuffer[0...fftFrameSize].
-*/
-{
-    float wr, wi, arg, *p1, *p2, temp;
-    float tr, ti, ur, ui, *p1r, *p1i, *p2r, *p2i;
-    long i, bitm, j, le, le2, k;
-
-    for (i = 2; i < 2 * fftFrameSize - 2; i += 2) {
-        for (bitm = 2, j = 0; bitm < 2 * fftFrameSize; bitm <<= 1) {
-            if (i & bitm) j++;
-            j <<= 1;
-        }
-        if (i < j) {
-            p1 = fftBuffer + i;
-            p2 = fftBuffer + j;
-            temp = *p1;
-            *(p1++) = *p2;
-            *(p2++) = temp;
-            temp = *p1;
-            *p1 = *p2;
-            *p2 = temp;
-        }
+JNIEXPORT jlong JNICALL
+Java_com_github_piasy_audioprocessor_NativePitchShifter_create(JNIEnv *env, jclass type) {
+    return (jlong) (intptr_t) calloc(1, sizeof(PitchShifter));
+}
+
+JNIEXPORT void JNICALL
+Java_com_github_piasy_audioprocessor_NativePitchShifter_release(JNIEnv *env, jclass type,
+                                                                jlong handle) {
+    PitchShifter *shifter = (PitchShifter *) (intptr_t) handle;
+    free(shifter->floatInput);
+    free(shifter->floatOutput);
+    free(shifter);
+}
+
+// make sure the scratch holds samples floats, throws OutOfMemoryError and returns 0 if fail.
+static int ensureScratch(JNIEnv *env, PitchShifter *shifter, long samples) {
+    float *floatInput, *floatOutput;
+
+    if (samples <= shifter->floatCapacity) {
+        return 1;
     }
-    for (k = 0, le = 2; k < (long) (log(fftFrameSize) / log(2.) + .5); k++) {
-        le <<= 1;
-        le2 = le >> 1;
-        ur = 1.0;
-        ui = 0.0;
-        arg = M_PI / (le2 >> 1);
-        wr = cos(arg);
-        wi = sign * sin(arg);
-        for (j = 0; j < le2; j += 2) {
-            p1r = fftBuffer + j;
-            p1i = p1r + 1;
-            p2r = p1r + le2;
-            p2i = p2r + 1;
-            for (i = j; i < 2 * fftFrameSize; i += le) {
-                tr = *p2r * ur - *p2i * ui;
-                ti = *p2r * ui + *p2i * ur;
-                *p2r = *p1r - tr;
-                *p2i = *p1i - ti;
-                *p1r += tr;
-                *p1i += ti;
-                p1r += le;
-                p1i += le;
-                p2r += le;
-                p2i += le;
-            }
-            tr = ur * wr - ui * wi;
-            ui = ur * wi + ui * wr;
-            ur = tr;
-        }
+    floatInput = realloc(shifter->floatInput, samples * sizeof(float));
+    if (floatInput != NULL) {
+        shifter->floatInput = floatInput;
     }
+    floatOutput = realloc(shifter->floatOutput, samples * sizeof(float));
+    if (floatOutput != NULL) {
+        shifter->floatOutput = floatOutput;
+    }
+    if (floatInput == NULL || floatOutput == NULL) {
+        (*env)->ThrowNew(env, (*env)->FindClass(env, "java/lang/OutOfMemoryError"),
+                         "grow pitch shifter scratch fail");
+        return 0;
+    }
+    shifter->floatCapacity = samples;
+    return 1;
 }
 
-
-JNIEXPORT void JNICALL
-Java_com_github_piasy_audioprocessor_AudioProcessor_process(JNIEnv *env, jclass type, jfloat ratio,
-                                                            jbyteArray in_, jbyteArray out_,
-                                                            jint size,
-                                                            jint sampleRate,
-                                                            jfloatArray floatInput_,
-                                                            jfloatArray floatOutput_) {
-    jbyte *in = (*env)->GetByteArrayElements(env, in_, NULL);
-    jbyte *out = (*env)->GetByteArrayElements(env, out_, NULL);
-    jfloat *floatInput = (*env)->GetFloatArrayElements(env, floatInput_, NULL);
-    jfloat *floatOutput = (*env)->GetFloatArrayElements(env, floatOutput_, NULL);
-
-    // two bytes -> one float
-    int i;
-    for (i = 0; i < size; i += 2) {
-        int lo = in[i] & 0x000000FF;
-        int hi = in[i + 1] & 0x000000FF;
-        int frame = (hi << 8) + lo;
+// two bytes -> one float
+static void bytesToFloats(const jbyte *in, float *out, long samples) {
+    long i;
+    for (i = 0; i < samples; i++) {
+        int lo = in[2 * i] & 0x000000FF;
+        int hi = in[2 * i + 1] & 0x000000FF;
         // bit operation is faster than divide
         // must be cast into signed short
-        floatInput[i >> 1] = (signed short) frame;
+        out[i] = (signed short) ((hi << 8) + lo);
+    }
+}
+
+// two bytes <- one float
+static void floatsToBytes(const float *in, jbyte *out, long samples) {
+    long i;
+    for (i = 0; i < samples; i++) {
+        int frame = (int) in[i];
+        out[2 * i] = (jbyte) (frame & 0x000000FF);
+        out[2 * i + 1] = (jbyte) (frame >> 8);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_com_github_piasy_audioprocessor_NativePitchShifter_process(JNIEnv *env, jclass type,
+                                                                jlong handle, jfloat ratio,
+                                                                jbyteArray in_, jint inOffset,
+                                                                jbyteArray out_, jint outOffset,
+                                                                jint size,
+                                                                jint sampleRate) {
+    PitchShifter *shifter = (PitchShifter *) (intptr_t) handle;
+    long samples = size / 2;
+    jbyte *in, *out;
+
+    if (!ensureScratch(env, shifter, samples)) {
+        return;
     }
-    smbPitchShift(ratio, 1024, 1024, 4, sampleRate, floatInput, floatOutput);
-    // two bytes <- one float
-    for (i = 0; i < size; i += 2) {
-        int frame = (int) floatOutput[i >> 1];
-        out[i] = (jbyte) (frame & 0x000000FF);
-        out[i + 1] = (jbyte) (frame >> 8);
+    // arrays are pinned only while converting, not while shifting
+    in = (*env)->GetPrimitiveArrayCritical(env, in_, NULL);
+    if (in == NULL) {
+        // OutOfMemoryError is pending
+        return;
     }
+    bytesToFloats(in + inOffset, shifter->floatInput, samples);
+    (*env)->ReleasePrimitiveArrayCritical(env, in_, in, JNI_ABORT);
+
+    smbPitchShift(shifter, ratio, samples, 1024, 4, sampleRate, shifter->floatInput,
+                  shifter->floatOutput);
 
-    (*env)->ReleaseByteArrayElements(env, in_, in, 0);
-    (*env)->ReleaseByteArrayElements(env, out_, out, 0);
-    (*env)->ReleaseFloatArrayElements(env, floatInput_, floatInput, 0);
-    (*env)->ReleaseFloatArrayElements(env, floatOutput_, floatOutput, 0);
+    out = (*env)->GetPrimitiveArrayCritical(env, out_, NULL);
+    if (out == NULL) {
+        return;
+    }
+    floatsToBytes(shifter->floatOutput, out + outOffset, samples);
+    (*env)->ReleasePrimitiveArrayCritical(env, out_, out, 0);
+}
+
+JNIEXPORT void JNICALL
+Java_com_github_piasy_audioprocessor_NativePitchShifter_processDirect(JNIEnv *env, jclass type,
+                                                                      jlong handle,
+                                                                      jfloat ratio,
+                                                                      jobject in_,
+                                                                      jint inOffset,
+                                                                      jobject out_,
+                                                                      jint outOffset,
+                                                                      jint size,
+                                                                      jint sampleRate) {
+    PitchShifter *shifter = (PitchShifter *) (intptr_t) handle;
+    long samples = size / 2;
+    // direct buffers don't move, no pin or copy
+    jbyte *in = (*env)->GetDirectBufferAddress(env, in_);
+    jbyte *out = (*env)->GetDirectBufferAddress(env, out_);
+
+    if (in == NULL || out == NULL) {
+        (*env)->ThrowNew(env, (*env)->FindClass(env, "java/lang/IllegalArgumentException"),
+                         "not a direct buffer");
+        return;
+    }
+    if (!ensureScratch(env, shifter, samples)) {
+        return;
+    }
+    bytesToFloats(in + inOffset, shifter->floatInput, samples);
+    smbPitchShift(shifter, ratio, samples, 1024, 4, sampleRate, shifter->floatInput,
+                  shifter->floatOutput);
+    floatsToBytes(shifter->floatOutput, out + outOffset, samples);
+}
+
+JNIEXPORT void JNICALL
+Java_com_github_piasy_audioprocessor_NativePitchShifter_processFloat(JNIEnv *env, jclass type,
+                                                                     jlong handle,
+                                                                     jfloat ratio,
+                                                                     jfloatArray in_,
+                                                                     jint inOffset,
+                                                                     jfloatArray out_,
+                                                                     jint outOffset,
+                                                                     jint size,
+                                                                     jint sampleRate) {
+    PitchShifter *shifter = (PitchShifter *) (intptr_t) handle;
+
+    if (!ensureScratch(env, shifter, size)) {
+        return;
+    }
+    // copy through the scratch, pinning the arrays during the whole shift would block GC
+    (*env)->GetFloatArrayRegion(env, in_, inOffset, size, shifter->floatInput);
+    if ((*env)->ExceptionCheck(env)) {
+        return;
+    }
+    smbPitchShift(shifter, ratio, size, 1024, 4, sampleRate, shifter->floatInput,
+                  shifter->floatOutput);
+    (*env)->SetFloatArrayRegion(env, out_, outOffset, size, shifter->floatOutput);
 }
@@ -24,36 +24,213 @@
 
 package com.github.piasy.audioprocessor;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created by Piasy{github.com/Piasy} on 13/09/2016.
+ *
+ * Each instance owns its pitch shifter state, so different instances could process different
+ * streams concurrently, call {@link #release()} to free it.
+ *
+ * The pitch shift runs on the native library by default, and on a pure Java port where the
+ * library is missing, pick one explicitly with {@link #AudioProcessor(int, int)}.
+ *
+ * The offset aware {@code process} methods take input of any length, an odd trailing byte of
+ * 16 bit input is kept and joined with the next input.
  */
 
 public class AudioProcessor {
-    static {
-        System.loadLibrary("audio-processor");
-    }
+    /**
+     * Native if the library could be loaded, otherwise Java.
+     */
+    public static final int ENGINE_AUTO = 0;
+    public static final int ENGINE_NATIVE = 1;
+    public static final int ENGINE_JAVA = 2;
 
     private final int mBufferSize;
+    // offset aware 16 bit input is shifted in chunks of it, to bound the engine scratch
+    private final int mChunkSize;
     private final byte[] mOutBuffer;
-    private final float[] mFloatInput;
     private final float[] mFloatOutput;
+    private final byte[] mJoinedSample = new byte[2];
+    private final int mEngine;
+
+    // odd trailing byte of last input
+    private boolean mHasPendingByte;
+    private byte mPendingByte;
+
+    // null after release
+    private PitchShifter mPitchShifter;
 
     public AudioProcessor(int bufferSize) {
+        this(bufferSize, ENGINE_AUTO);
+    }
+
+    /**
+     * @param engine one of {@link #ENGINE_AUTO}, {@link #ENGINE_NATIVE} and {@link #ENGINE_JAVA},
+     * {@link #ENGINE_NATIVE} throws {@link UnsatisfiedLinkError} if the library is missing.
+     */
+    public AudioProcessor(int bufferSize, int engine) {
         mBufferSize = bufferSize;
+        mChunkSize = Math.max(bufferSize & ~1, 2);
         mOutBuffer = new byte[mBufferSize];
-        // in native code, two bytes is converted into one float
-        mFloatInput = new float[mBufferSize / 2];
+        // two bytes is converted into one float
         mFloatOutput = new float[mBufferSize / 2];
+        if (engine == ENGINE_AUTO) {
+            engine = NativePitchShifter.isAvailable() ? ENGINE_NATIVE : ENGINE_JAVA;
+        }
+        switch (engine) {
+            case ENGINE_NATIVE:
+                mPitchShifter = new NativePitchShifter();
+                break;
+            case ENGINE_JAVA:
+                mPitchShifter = new JavaPitchShifter();
+                break;
+            default:
+                throw new IllegalArgumentException("bad engine " + engine);
+        }
+        mEngine = engine;
     }
 
-    private static native void process(float ratio, byte[] in, byte[] out,
-            int size, int sampleRate, float[] floatInput, float[] floatOutput);
+    /**
+     * @return {@link #ENGINE_NATIVE} or {@link #ENGINE_JAVA}.
+     */
+    public int getEngine() {
+        return mEngine;
+    }
 
     /**
+     * Process {@code bufferSize} bytes of 16 bit little endian PCM, use
+     * {@link #process(float, byte[], int, int, byte[], int, int)} if the input may be shorter.
+     *
      * @param ratio 0~2
      */
     public synchronized byte[] process(float ratio, byte[] input, int sampleRate) {
-        process(ratio, input, mOutBuffer, mBufferSize, sampleRate, mFloatInput, mFloatOutput);
+        checkNotReleased();
+        mPitchShifter.process(ratio, input, 0, mOutBuffer, 0, mBufferSize, sampleRate);
         return mOutBuffer;
     }
+
+    /**
+     * Process {@code length} bytes of 16 bit little endian PCM from {@code input}, of any
+     * length, without allocation.
+     *
+     * An odd trailing byte is kept and processed with the next call, so the output is
+     * {@code length} bytes, one more or one less, room of {@code length + 1} bytes is always
+     * enough. The output must not overlap the input.
+     *
+     * @param ratio 0~2
+     * @return bytes written into {@code output} from {@code outOffset}.
+     */
+    public synchronized int process(float ratio, byte[] input, int offset, int length,
+            byte[] output, int outOffset, int sampleRate) {
+        int produced = (length + (mHasPendingByte ? 1 : 0)) & ~1;
+        checkRange(input.length, offset, length);
+        checkRange(output.length, outOffset, produced);
+        checkNotReleased();
+
+        int written = 0;
+        if (mHasPendingByte && length > 0) {
+            mJoinedSample[0] = mPendingByte;
+            mJoinedSample[1] = input[offset];
+            mPitchShifter.process(ratio, mJoinedSample, 0, output, outOffset, 2, sampleRate);
+            mHasPendingByte = false;
+            offset++;
+            length--;
+            written = 2;
+        }
+        int even = length & ~1;
+        for (int done = 0; done < even; done += mChunkSize) {
+            int chunk = Math.min(mChunkSize, even - done);
+            mPitchShifter.process(ratio, input, offset + done, output, outOffset + written + done,
+                    chunk, sampleRate);
+        }
+        if (length > even) {
+            mPendingByte = input[offset + even];
+            mHasPendingByte = true;
+        }
+        return produced;
+    }
+
+    /**
+     * Process 16 bit little endian PCM between direct buffers, e.g. the one of the direct buffer
+     * record path, without any copy through JNI.
+     *
+     * {@code size} bytes are consumed from the position of {@code in}, which is advanced, the
+     * output is written at the position of {@code out}, which is not advanced, so {@code out}
+     * could be played with {@code size} directly.
+     *
+     * @param ratio 0~2
+     * @param size bytes count, must be even.
+     */
+    public synchronized void process(float ratio, ByteBuffer in, ByteBuffer out, int size,
+            int sampleRate) {
+        if (!in.isDirect() || !out.isDirect()) {
+            throw new IllegalArgumentException("buffers must be direct");
+        }
+        if (size % 2 != 0 || size > in.remaining() || size > out.remaining()) {
+            throw new IllegalArgumentException("bad size " + size + ", in remaining "
+                                               + in.remaining() + ", out remaining "
+                                               + out.remaining());
+        }
+        checkNotReleased();
+        mPitchShifter.process(ratio, in, in.position(), out, out.position(), size, sampleRate);
+        in.position(in.position() + size);
+    }
+
+    /**
+     * Process float samples without any conversion, e.g. those recorded with
+     * {@code ENCODING_PCM_FLOAT}, the output could be written to a float AudioTrack directly.
+     *
+     * @param ratio 0~2
+     * @param size samples count, no more than {@code bufferSize / 2}.
+     * @return the output buffer, valid in [0, size), reused by next call.
+     */
+    public synchronized float[] process(float ratio, float[] input, int size, int sampleRate) {
+        if (size > mFloatOutput.length) {
+            throw new IllegalArgumentException("size " + size + " exceeds " + mFloatOutput.length);
+        }
+        checkNotReleased();
+        mPitchShifter.process(ratio, input, 0, mFloatOutput, 0, size, sampleRate);
+        return mFloatOutput;
+    }
+
+    /**
+     * Process {@code length} float samples from {@code input}, of any length, without
+     * allocation, the output must not overlap the input.
+     *
+     * @param ratio 0~2
+     * @return samples written into {@code output} from {@code outOffset}, always {@code length}.
+     */
+    public synchronized int process(float ratio, float[] input, int offset, int length,
+            float[] output, int outOffset, int sampleRate) {
+        checkRange(input.length, offset, length);
+        checkRange(output.length, outOffset, length);
+        checkNotReleased();
+        mPitchShifter.process(ratio, input, offset, output, outOffset, length, sampleRate);
+        return length;
+    }
+
+    /**
+     * Free the pitch shifter state, the instance can't be used afterwards.
+     */
+    public synchronized void release() {
+        if (mPitchShifter != null) {
+            mPitchShifter.release();
+            mPitchShifter = null;
+        }
+    }
+
+    private static void checkRange(int arrayLength, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > arrayLength - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length
+                                                + ", array length " + arrayLength);
+        }
+    }
+
+    private void checkNotReleased() {
+        if (mPitchShifter == null) {
+            throw new IllegalStateException("AudioProcessor is released");
+        }
+    }
 }
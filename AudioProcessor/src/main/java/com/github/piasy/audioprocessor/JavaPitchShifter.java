@@ -0,0 +1,230 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.audioprocessor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pure Java port of smbPitchShift.c, runs where the native library is missing, including host
+ * JVM, keep them in sync.
+ *
+ * Output differs from the native one only in float rounding.
+ */
+
+public final class JavaPitchShifter implements PitchShifter {
+    static final int FFT_FRAME_SIZE = 1024;
+    static final int OSAMP = 4;
+
+    private final int mFftFrameSize;
+    private final int mOsamp;
+    private final RealFft mFft;
+
+    private final float[] mInFifo;
+    private final float[] mOutFifo;
+    private final float[] mFftWorksp;
+    private final float[] mLastPhase;
+    private final float[] mSumPhase;
+    private final float[] mOutputAccum;
+    private final float[] mAnaFreq;
+    private final float[] mAnaMagn;
+    private final float[] mSynFreq;
+    private final float[] mSynMagn;
+    private int mRover;
+
+    // scratch of 16 bit paths, grows on demand
+    private float[] mFloatInput = new float[0];
+    private float[] mFloatOutput = new float[0];
+
+    public JavaPitchShifter() {
+        this(FFT_FRAME_SIZE, OSAMP);
+    }
+
+    /**
+     * @param fftFrameSize a power of 2.
+     * @param osamp STFT oversampling factor, at least 4 for moderate ratios.
+     */
+    public JavaPitchShifter(int fftFrameSize, int osamp) {
+        mFftFrameSize = fftFrameSize;
+        mOsamp = osamp;
+        mFft = new RealFft(fftFrameSize);
+        mInFifo = new float[fftFrameSize];
+        mOutFifo = new float[fftFrameSize];
+        mFftWorksp = new float[fftFrameSize + 2];
+        mLastPhase = new float[fftFrameSize / 2 + 1];
+        mSumPhase = new float[fftFrameSize / 2 + 1];
+        mOutputAccum = new float[2 * fftFrameSize];
+        mAnaFreq = new float[fftFrameSize / 2 + 1];
+        mAnaMagn = new float[fftFrameSize / 2 + 1];
+        mSynFreq = new float[fftFrameSize / 2 + 1];
+        mSynMagn = new float[fftFrameSize / 2 + 1];
+        mRover = fftFrameSize - fftFrameSize / osamp;
+    }
+
+    @Override
+    public void process(float ratio, byte[] in, int inOffset, byte[] out, int outOffset,
+            int size, int sampleRate) {
+        int samples = size / 2;
+        ensureScratch(samples);
+        // two bytes -> one float
+        for (int i = 0; i < samples; i++) {
+            int index = inOffset + 2 * i;
+            mFloatInput[i] = (short) ((in[index] & 0xFF) | (in[index + 1] << 8));
+        }
+        process(ratio, mFloatInput, 0, mFloatOutput, 0, samples, sampleRate);
+        // two bytes <- one float
+        for (int i = 0; i < samples; i++) {
+            int index = outOffset + 2 * i;
+            int frame = (int) mFloatOutput[i];
+            out[index] = (byte) frame;
+            out[index + 1] = (byte) (frame >> 8);
+        }
+    }
+
+    @Override
+    public void process(float ratio, ByteBuffer in, int inOffset, ByteBuffer out, int outOffset,
+            int size, int sampleRate) {
+        int samples = size / 2;
+        ensureScratch(samples);
+        for (int i = 0; i < samples; i++) {
+            int index = inOffset + 2 * i;
+            mFloatInput[i] = (short) ((in.get(index) & 0xFF) | (in.get(index + 1) << 8));
+        }
+        process(ratio, mFloatInput, 0, mFloatOutput, 0, samples, sampleRate);
+        for (int i = 0; i < samples; i++) {
+            int index = outOffset + 2 * i;
+            int frame = (int) mFloatOutput[i];
+            out.put(index, (byte) frame);
+            out.put(index + 1, (byte) (frame >> 8));
+        }
+    }
+
+    @Override
+    public void process(float ratio, float[] in, int inOffset, float[] out, int outOffset,
+            int size, int sampleRate) {
+        int fftFrameSize = mFftFrameSize;
+        int fftFrameSize2 = fftFrameSize / 2;
+        int stepSize = fftFrameSize / mOsamp;
+        int inFifoLatency = fftFrameSize - stepSize;
+        double freqPerBin = sampleRate / (double) fftFrameSize;
+        double expct = 2. * Math.PI * (double) stepSize / (double) fftFrameSize;
+        float[] window = mFft.window();
+        float[] worksp = mFftWorksp;
+        int rover = mRover;
+
+        for (int i = 0; i < size; i++) {
+            mInFifo[rover] = in[inOffset + i];
+            out[outOffset + i] = mOutFifo[rover - inFifoLatency];
+            rover++;
+
+            if (rover < fftFrameSize) {
+                continue;
+            }
+            rover = inFifoLatency;
+
+            // analysis
+            for (int k = 0; k < fftFrameSize; k++) {
+                worksp[k] = mInFifo[k] * window[k];
+            }
+            mFft.forward(worksp);
+            for (int k = 0; k <= fftFrameSize2; k++) {
+                double real = worksp[2 * k];
+                double imag = worksp[2 * k + 1];
+                double magn = 2. * Math.sqrt(real * real + imag * imag);
+                double phase = Math.atan2(imag, real);
+
+                double tmp = phase - mLastPhase[k];
+                mLastPhase[k] = (float) phase;
+                tmp -= (double) k * expct;
+
+                // map delta phase into +/- Pi interval
+                long qpd = (long) (tmp / Math.PI);
+                if (qpd >= 0) {
+                    qpd += qpd & 1;
+                } else {
+                    qpd -= qpd & 1;
+                }
+                tmp -= Math.PI * (double) qpd;
+
+                // deviation from bin frequency, then the true frequency
+                tmp = mOsamp * tmp / (2. * Math.PI);
+                tmp = (double) k * freqPerBin + tmp * freqPerBin;
+
+                mAnaMagn[k] = (float) magn;
+                mAnaFreq[k] = (float) tmp;
+            }
+
+            // processing
+            for (int k = 0; k <= fftFrameSize2; k++) {
+                mSynMagn[k] = 0;
+                mSynFreq[k] = 0;
+            }
+            for (int k = 0; k <= fftFrameSize2; k++) {
+                int index = (int) (k * ratio);
+                if (index <= fftFrameSize2) {
+                    mSynMagn[index] += mAnaMagn[k];
+                    mSynFreq[index] = mAnaFreq[k] * ratio;
+                }
+            }
+
+            // synthesis
+            for (int k = 0; k <= fftFrameSize2; k++) {
+                double magn = mSynMagn[k];
+                double tmp = mSynFreq[k];
+                tmp -= (double) k * freqPerBin;
+                tmp /= freqPerBin;
+                tmp = 2. * Math.PI * tmp / mOsamp;
+                tmp += (double) k * expct;
+
+                mSumPhase[k] += tmp;
+                double phase = mSumPhase[k];
+                worksp[2 * k] = (float) (magn * Math.cos(phase));
+                worksp[2 * k + 1] = (float) (magn * Math.sin(phase));
+            }
+            // the same doubling as smbPitchShift.c, see there
+            worksp[0] *= 2.;
+            worksp[fftFrameSize] *= 2.;
+            mFft.inverse(worksp);
+
+            for (int k = 0; k < fftFrameSize; k++) {
+                mOutputAccum[k] += 2. * window[k] * worksp[k] / (fftFrameSize2 * mOsamp);
+            }
+            System.arraycopy(mOutputAccum, 0, mOutFifo, 0, stepSize);
+            System.arraycopy(mOutputAccum, stepSize, mOutputAccum, 0, fftFrameSize);
+            System.arraycopy(mInFifo, stepSize, mInFifo, 0, inFifoLatency);
+        }
+        mRover = rover;
+    }
+
+    @Override
+    public void release() {
+    }
+
+    private void ensureScratch(int samples) {
+        if (mFloatInput.length < samples) {
+            mFloatInput = new float[samples];
+            mFloatOutput = new float[samples];
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.audioprocessor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * JNI backend, runs smbPitchShift.c of the audio-processor library.
+ *
+ * Check {@link #isAvailable()} before construct it.
+ */
+
+public final class NativePitchShifter implements PitchShifter {
+    private static final String LIBRARY = "audio-processor";
+    private static Boolean sAvailable;
+
+    // native PitchShifter, owns the scratch of 16 bit paths, 0 after release
+    private long mHandle;
+
+    public NativePitchShifter() {
+        if (!isAvailable()) {
+            throw new UnsatisfiedLinkError("lib" + LIBRARY + " is not available");
+        }
+        mHandle = create();
+        if (mHandle == 0) {
+            throw new OutOfMemoryError("create native pitch shifter fail");
+        }
+    }
+
+    /**
+     * Load the library on first call.
+     *
+     * @return whether the library is loaded.
+     */
+    public static synchronized boolean isAvailable() {
+        if (sAvailable == null) {
+            try {
+                System.loadLibrary(LIBRARY);
+                sAvailable = true;
+            } catch (UnsatisfiedLinkError e) {
+                sAvailable = false;
+            }
+        }
+        return sAvailable;
+    }
+
+    private static native long create();
+
+    private static native void release(long handle);
+
+    private static native void process(long handle, float ratio, byte[] in, int inOffset,
+            byte[] out, int outOffset, int size, int sampleRate);
+
+    private static native void processDirect(long handle, float ratio, ByteBuffer in,
+            int inOffset, ByteBuffer out, int outOffset, int size, int sampleRate);
+
+    private static native void processFloat(long handle, float ratio, float[] in,
+            int inOffset, float[] out, int outOffset, int size, int sampleRate);
+
+    @Override
+    public void process(float ratio, byte[] in, int inOffset, byte[] out, int outOffset,
+            int size, int sampleRate) {
+        checkNotReleased();
+        process(mHandle, ratio, in, inOffset, out, outOffset, size, sampleRate);
+    }
+
+    @Override
+    public void process(float ratio, ByteBuffer in, int inOffset, ByteBuffer out, int outOffset,
+            int size, int sampleRate) {
+        checkNotReleased();
+        processDirect(mHandle, ratio, in, inOffset, out, outOffset, size, sampleRate);
+    }
+
+    @Override
+    public void process(float ratio, float[] in, int inOffset, float[] out, int outOffset,
+            int size, int sampleRate) {
+        checkNotReleased();
+        processFloat(mHandle, ratio, in, inOffset, out, outOffset, size, sampleRate);
+    }
+
+    @Override
+    public void release() {
+        if (mHandle != 0) {
+            release(mHandle);
+            mHandle = 0;
+        }
+    }
+
+    private void checkNotReleased() {
+        if (mHandle == 0) {
+            throw new IllegalStateException("NativePitchShifter is released");
+        }
+    }
+}
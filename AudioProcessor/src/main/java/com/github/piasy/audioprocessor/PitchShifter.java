@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.audioprocessor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A phase vocoder pitch shifter, which keeps the duration, {@link AudioProcessor} runs on one of
+ * its implementations.
+ *
+ * Implementations keep the state of one stream, and are not thread safe.
+ */
+
+public interface PitchShifter {
+    /**
+     * Shift 16 bit little endian PCM.
+     *
+     * @param ratio 0~2
+     * @param size bytes count, must be even.
+     */
+    void process(float ratio, byte[] in, int inOffset, byte[] out, int outOffset, int size,
+            int sampleRate);
+
+    /**
+     * Shift 16 bit little endian PCM in direct buffers, positions and limits are not touched.
+     *
+     * @param ratio 0~2
+     * @param inOffset absolute byte index of input.
+     * @param outOffset absolute byte index of output.
+     * @param size bytes count, must be even.
+     */
+    void process(float ratio, ByteBuffer in, int inOffset, ByteBuffer out, int outOffset,
+            int size, int sampleRate);
+
+    /**
+     * Shift float samples, output is in the same scale as input.
+     *
+     * @param ratio 0~2
+     * @param size samples count.
+     */
+    void process(float ratio, float[] in, int inOffset, float[] out, int outOffset, int size,
+            int sampleRate);
+
+    /**
+     * Free the state, the instance can't be used afterwards.
+     */
+    void release();
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.audioprocessor;
+
+/**
+ * Real input FFT with cached tables, the Java port of realFft.c, keep them in sync.
+ *
+ * An N point real FFT is done as an N/2 point complex FFT of the even/odd interleaved input,
+ * followed by a split step.
+ */
+
+final class RealFft {
+    private final int mSize;
+    // periodic Hann window of N points
+    private final float[] mWindow;
+    // cos and sin of 2 * pi * k / N, k < N / 2
+    private final float[] mCosTable;
+    private final float[] mSinTable;
+    // bit reversed index of the N / 2 point complex FFT
+    private final int[] mBitReverse;
+
+    /**
+     * @param size N, a power of 2.
+     */
+    RealFft(int size) {
+        int half = size / 2;
+        mSize = size;
+        mWindow = new float[size];
+        mCosTable = new float[half];
+        mSinTable = new float[half];
+        mBitReverse = new int[half];
+        for (int i = 0; i < size; i++) {
+            mWindow[i] = (float) (-.5 * Math.cos(2. * Math.PI * i / size) + .5);
+        }
+        for (int i = 0; i < half; i++) {
+            mCosTable[i] = (float) Math.cos(2. * Math.PI * i / size);
+            mSinTable[i] = (float) Math.sin(2. * Math.PI * i / size);
+        }
+        int bits = 0;
+        while ((1 << bits) < half) {
+            bits++;
+        }
+        for (int i = 0; i < half; i++) {
+            int j = 0;
+            for (int k = 0; k < bits; k++) {
+                j |= ((i >> k) & 1) << (bits - 1 - k);
+            }
+            mBitReverse[i] = j;
+        }
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    float[] window() {
+        return mWindow;
+    }
+
+    /**
+     * in: N real samples in buffer[0, N).
+     * out: bins 0 to N / 2 as interleaved re, im in buffer[0, N + 2), buffer must have N + 2
+     * floats.
+     */
+    void forward(float[] buffer) {
+        int n = mSize / 2;
+
+        complexFft(buffer, -1);
+
+        float re = buffer[0];
+        float im = buffer[1];
+        buffer[0] = re + im;
+        buffer[1] = 0;
+        buffer[2 * n] = re - im;
+        buffer[2 * n + 1] = 0;
+        for (int k = 1; k <= n / 2; k++) {
+            int zk = 2 * k;
+            int zn = 2 * (n - k);
+            // even and odd parts
+            float er = (buffer[zk] + buffer[zn]) * .5f;
+            float ei = (buffer[zk + 1] - buffer[zn + 1]) * .5f;
+            float or = (buffer[zk + 1] + buffer[zn + 1]) * .5f;
+            float oi = (buffer[zn] - buffer[zk]) * .5f;
+            // times exp(-2 pi i k / N)
+            float c = mCosTable[k];
+            float s = mSinTable[k];
+            float tr = or * c + oi * s;
+            float ti = oi * c - or * s;
+            buffer[zk] = er + tr;
+            buffer[zk + 1] = ei + ti;
+            buffer[zn] = er - tr;
+            buffer[zn + 1] = ti - ei;
+        }
+    }
+
+    /**
+     * Inverse of {@link #forward(float[])}, scaled by N / 2, imaginary parts of bin 0 and bin
+     * N / 2 are ignored.
+     * out: N real samples in buffer[0, N).
+     */
+    void inverse(float[] buffer) {
+        int n = mSize / 2;
+
+        float re = buffer[0];
+        float nyquist = buffer[2 * n];
+        buffer[0] = (re + nyquist) * .5f;
+        buffer[1] = (re - nyquist) * .5f;
+        for (int k = 1; k <= n / 2; k++) {
+            int xk = 2 * k;
+            int xn = 2 * (n - k);
+            float er = (buffer[xk] + buffer[xn]) * .5f;
+            float ei = (buffer[xk + 1] - buffer[xn + 1]) * .5f;
+            float dr = (buffer[xk] - buffer[xn]) * .5f;
+            float di = (buffer[xk + 1] + buffer[xn + 1]) * .5f;
+            // odd part, divided by exp(-2 pi i k / N)
+            float c = mCosTable[k];
+            float s = mSinTable[k];
+            float or = dr * c - di * s;
+            float oi = dr * s + di * c;
+            // even + i * odd, and its mirror
+            buffer[xk] = er - oi;
+            buffer[xk + 1] = ei + or;
+            buffer[xn] = er + oi;
+            buffer[xn + 1] = or - ei;
+        }
+
+        complexFft(buffer, 1);
+    }
+
+    // in place complex FFT of N / 2 points, sign -1 is forward, 1 is inverse, unscaled.
+    private void complexFft(float[] data, int sign) {
+        int n = mSize / 2;
+
+        for (int i = 0; i < n; i++) {
+            int j = mBitReverse[i];
+            if (i < j) {
+                float re = data[2 * i];
+                float im = data[2 * i + 1];
+                data[2 * i] = data[2 * j];
+                data[2 * i + 1] = data[2 * j + 1];
+                data[2 * j] = re;
+                data[2 * j + 1] = im;
+            }
+        }
+        for (int len = 2; len <= n; len <<= 1) {
+            int half = len >> 1;
+            // twiddle of N / 2 points FFT with index k is the N point one with index 2 * k
+            int stride = 2 * (n / len);
+            for (int i = 0; i < n; i += len) {
+                for (int k = 0; k < half; k++) {
+                    float wr = mCosTable[k * stride];
+                    float wi = sign * mSinTable[k * stride];
+                    int a = 2 * (i + k);
+                    int b = 2 * (i + k + half);
+                    float tr = data[b] * wr - data[b + 1] * wi;
+                    float ti = data[b] * wi + data[b + 1] * wr;
+                    data[b] = data[a] - tr;
+                    data[b + 1] = data[a + 1] - ti;
+                    data[a] += tr;
+                    data[a + 1] += ti;
+                }
+            }
+        }
+    }
+}
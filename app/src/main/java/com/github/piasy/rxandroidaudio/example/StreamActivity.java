@@ -36,6 +36,7 @@ import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
 import com.github.piasy.audioprocessor.AudioProcessor;
+import com.github.piasy.rxandroidaudio.PcmUtils;
 import com.github.piasy.rxandroidaudio.StreamAudioPlayer;
 import com.github.piasy.rxandroidaudio.StreamAudioRecorder;
 import com.tbruyelle.rxpermissions2.RxPermissions;
@@ -67,6 +68,7 @@ public class StreamActivity extends AppCompatActivity {
     private FileOutputStream mFileOutputStream;
     private File mOutputFile;
     private byte[] mBuffer;
+    private byte[] mChangedBuffer;
     private boolean mIsRecording = false;
     private float mRatio = 1;
 
@@ -96,6 +98,14 @@ public class StreamActivity extends AppCompatActivity {
         mStreamAudioPlayer = StreamAudioPlayer.getInstance();
         mAudioProcessor = new AudioProcessor(BUFFER_SIZE);
         mBuffer = new byte[BUFFER_SIZE];
+        // an odd byte may be carried over from last read
+        mChangedBuffer = new byte[BUFFER_SIZE + 1];
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAudioProcessor.release();
     }
 
     @OnClick(R.id.mBtnStart)
@@ -164,13 +174,7 @@ public class StreamActivity extends AppCompatActivity {
     }
 
     private int calcAmp(byte[] data, int size) {
-        int amplitude = 0;
-        for (int i = 0; i + 1 < size; i += 2) {
-            short value = (short) (((data[i + 1] & 0x000000FF) << 8) + (data[i + 1] & 0x000000FF));
-            amplitude += Math.abs(value);
-        }
-        amplitude /= size / 2;
-        return amplitude / 2048;
+        return (int) PcmUtils.calcRms(data, size) / 2048;
     }
 
     private void stopRecord() {
@@ -213,11 +217,14 @@ public class StreamActivity extends AppCompatActivity {
                         FileInputStream inputStream = new FileInputStream(file);
                         int read;
                         while ((read = inputStream.read(mBuffer)) > 0) {
-                            mStreamAudioPlayer.play(mRatio == 1
-                                            ? mBuffer
-                                            : mAudioProcessor.process(mRatio, mBuffer,
-                                                    StreamAudioRecorder.DEFAULT_SAMPLE_RATE),
-                                    read);
+                            if (mRatio == 1) {
+                                mStreamAudioPlayer.play(mBuffer, read);
+                            } else {
+                                int changed = mAudioProcessor.process(mRatio, mBuffer, 0, read,
+                                        mChangedBuffer, 0,
+                                        StreamAudioRecorder.DEFAULT_SAMPLE_RATE);
+                                mStreamAudioPlayer.play(mChangedBuffer, changed);
+                            }
                         }
                         inputStream.close();
                         mStreamAudioPlayer.release();
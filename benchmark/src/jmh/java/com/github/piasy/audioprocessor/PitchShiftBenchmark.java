@@ -0,0 +1,96 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.audioprocessor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Pitch shift of one 1024 samples buffer, the native engine runs on the host build of the
+ * library, see nativeLibrary task.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PitchShiftBenchmark {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BUFFER_SIZE = 2048;
+
+    @Param({ "java", "native" })
+    public String mEngine;
+
+    private AudioProcessor mAudioProcessor;
+    private byte[] mInput;
+    private ByteBuffer mDirectInput;
+    private ByteBuffer mDirectOutput;
+    private byte[] mOutput;
+
+    @Setup
+    public void setUp() {
+        mAudioProcessor = new AudioProcessor(BUFFER_SIZE, "java".equals(mEngine)
+                ? AudioProcessor.ENGINE_JAVA : AudioProcessor.ENGINE_NATIVE);
+        mInput = PitchShiftEquivalence.signal(BUFFER_SIZE / 2, SAMPLE_RATE, 0);
+        mDirectInput = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        mDirectInput.put(mInput).flip();
+        mDirectOutput = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        mOutput = new byte[BUFFER_SIZE + 1];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mAudioProcessor.release();
+    }
+
+    @Benchmark
+    public byte[] process() {
+        return mAudioProcessor.process(1.5F, mInput, SAMPLE_RATE);
+    }
+
+    /**
+     * Odd length, so an odd byte is carried over every other call.
+     */
+    @Benchmark
+    public int processOffset() {
+        return mAudioProcessor.process(1.5F, mInput, 0, BUFFER_SIZE - 1, mOutput, 0,
+                SAMPLE_RATE);
+    }
+
+    @Benchmark
+    public ByteBuffer processDirect() {
+        mDirectInput.rewind();
+        mAudioProcessor.process(1.5F, mDirectInput, mDirectOutput, BUFFER_SIZE, SAMPLE_RATE);
+        return mDirectOutput;
+    }
+}
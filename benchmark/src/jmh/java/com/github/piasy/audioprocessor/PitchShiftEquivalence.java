@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.audioprocessor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Run both engines on the same signal and compare their output, the direct buffer path of each
+ * engine is compared with its byte array path as well, exit with 1 if they differ by
+ * more than {@link #MAX_DIFF_DB} relative to the peak: ./gradlew :benchmark:pitchShiftEquivalence,
+ * it's part of ./gradlew :benchmark:check.
+ *
+ * Input split into random chunks, odd ones included, must produce exactly the same output as
+ * whole buffers.
+ */
+
+public final class PitchShiftEquivalence {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BUFFER_SIZE = 2048;
+    private static final int BUFFERS = 200;
+    private static final float[] RATIOS = { 0.5F, 0.8F, 1F, 1.5F, 2F };
+    private static final double MAX_DIFF_DB = -60;
+
+    private PitchShiftEquivalence() {
+        // no instance
+    }
+
+    public static void main(String[] args) {
+        if (!NativePitchShifter.isAvailable()) {
+            System.err.println("native library is missing, check java.library.path");
+            System.exit(1);
+        }
+        boolean pass = true;
+        for (float ratio : RATIOS) {
+            pass &= compare(ratio);
+        }
+        pass &= compareChunked(AudioProcessor.ENGINE_JAVA);
+        pass &= compareChunked(AudioProcessor.ENGINE_NATIVE);
+        System.exit(pass ? 0 : 1);
+    }
+
+    /**
+     * 16 bit little endian mono signal of a few partials and some noise.
+     */
+    static byte[] signal(int samples, int sampleRate, long offset) {
+        Random random = new Random(offset);
+        byte[] data = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            double t = (double) (offset + i) / sampleRate;
+            double value = 8000 * Math.sin(2 * Math.PI * 220 * t)
+                           + 4000 * Math.sin(2 * Math.PI * 660 * t)
+                           + 2000 * Math.sin(2 * Math.PI * 1870 * t)
+                           + 500 * random.nextGaussian();
+            int frame = (int) value;
+            data[2 * i] = (byte) frame;
+            data[2 * i + 1] = (byte) (frame >> 8);
+        }
+        return data;
+    }
+
+    private static boolean compareChunked(int engine) {
+        AudioProcessor whole = new AudioProcessor(BUFFER_SIZE, engine);
+        AudioProcessor chunked = new AudioProcessor(BUFFER_SIZE, engine);
+        int samples = BUFFER_SIZE / 2;
+        byte[] input = new byte[BUFFERS * BUFFER_SIZE];
+        byte[] wholeOut = new byte[input.length];
+        byte[] chunkedOut = new byte[input.length];
+        for (int i = 0; i < BUFFERS; i++) {
+            byte[] buffer = signal(samples, SAMPLE_RATE, (long) i * samples);
+            System.arraycopy(buffer, 0, input, i * BUFFER_SIZE, BUFFER_SIZE);
+            System.arraycopy(whole.process(1.5F, buffer, SAMPLE_RATE), 0, wholeOut,
+                    i * BUFFER_SIZE, BUFFER_SIZE);
+        }
+        Random random = new Random(engine);
+        int consumed = 0;
+        int produced = 0;
+        while (consumed < input.length) {
+            // up to 3 buffers, more than the chunk size of AudioProcessor
+            int length = Math.min(random.nextInt(3 * BUFFER_SIZE) + 1, input.length - consumed);
+            produced += chunked.process(1.5F, input, consumed, length, chunkedOut, produced,
+                    SAMPLE_RATE);
+            consumed += length;
+        }
+        whole.release();
+        chunked.release();
+
+        boolean pass = produced == input.length
+                       && Arrays.equals(wholeOut, chunkedOut);
+        System.out.printf("%s engine, random chunks: %d of %d bytes produced, %s%n",
+                engine == AudioProcessor.ENGINE_JAVA ? "java" : "native", produced,
+                input.length, pass ? "ok" : "FAIL");
+        return pass;
+    }
+
+    private static boolean compare(float ratio) {
+        AudioProcessor javaEngine = new AudioProcessor(BUFFER_SIZE, AudioProcessor.ENGINE_JAVA);
+        AudioProcessor nativeEngine = new AudioProcessor(BUFFER_SIZE,
+                AudioProcessor.ENGINE_NATIVE);
+        AudioProcessor javaDirect = new AudioProcessor(BUFFER_SIZE, AudioProcessor.ENGINE_JAVA);
+        AudioProcessor nativeDirect = new AudioProcessor(BUFFER_SIZE,
+                AudioProcessor.ENGINE_NATIVE);
+        ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteBuffer javaDirectOut = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteBuffer nativeDirectOut = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        int samples = BUFFER_SIZE / 2;
+        int peak = 1;
+        int maxDiff = 0;
+        for (int i = 0; i < BUFFERS; i++) {
+            byte[] input = signal(samples, SAMPLE_RATE, (long) i * samples);
+            byte[] javaOut = javaEngine.process(ratio, input, SAMPLE_RATE);
+            byte[] nativeOut = nativeEngine.process(ratio, input, SAMPLE_RATE);
+            in.clear();
+            in.put(input).flip();
+            javaDirect.process(ratio, in, javaDirectOut, BUFFER_SIZE, SAMPLE_RATE);
+            in.flip();
+            nativeDirect.process(ratio, in, nativeDirectOut, BUFFER_SIZE, SAMPLE_RATE);
+            for (int j = 0; j < samples; j++) {
+                int a = (short) ((javaOut[2 * j] & 0xFF) | (javaOut[2 * j + 1] << 8));
+                int b = (short) ((nativeOut[2 * j] & 0xFF) | (nativeOut[2 * j + 1] << 8));
+                int c = (short) ((javaDirectOut.get(2 * j) & 0xFF)
+                                 | (javaDirectOut.get(2 * j + 1) << 8));
+                int d = (short) ((nativeDirectOut.get(2 * j) & 0xFF)
+                                 | (nativeDirectOut.get(2 * j + 1) << 8));
+                peak = Math.max(peak, Math.abs(b));
+                maxDiff = Math.max(maxDiff, Math.abs(a - b));
+                maxDiff = Math.max(maxDiff, Math.abs(a - c));
+                maxDiff = Math.max(maxDiff, Math.abs(b - d));
+            }
+        }
+        javaEngine.release();
+        nativeEngine.release();
+        javaDirect.release();
+        nativeDirect.release();
+
+        double diffDb = maxDiff == 0 ? Double.NEGATIVE_INFINITY
+                : 20 * Math.log10((double) maxDiff / peak);
+        boolean pass = diffDb <= MAX_DIFF_DB;
+        System.out.printf("ratio %.1f: peak %d, max diff %d, %.1f dB %s%n", ratio, peak, maxDiff,
+                diffDb, pass ? "ok" : "FAIL");
+        return pass;
+    }
+}
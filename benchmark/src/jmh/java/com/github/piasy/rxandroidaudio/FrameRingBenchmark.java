@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Frame hand over between the record thread and consumers.
+ */
+
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FrameRingBenchmark {
+
+    private static final int FRAME_SIZE = 2048;
+
+    private PcmFrameRing mRing;
+    private PcmFrameQueue mQueue;
+    private PcmFramePool mPool;
+    private byte[] mData;
+
+    @Setup
+    public void setUp() {
+        mRing = new PcmFrameRing(16, FRAME_SIZE);
+        mQueue = new PcmFrameQueue(16);
+        mPool = new PcmFramePool(FRAME_SIZE, 32);
+        mData = new byte[FRAME_SIZE];
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public boolean ringProduce() {
+        PcmFrame frame = mRing.acquire();
+        if (frame == null) {
+            return false;
+        }
+        System.arraycopy(mData, 0, frame.mData, 0, FRAME_SIZE);
+        frame.mSize = FRAME_SIZE;
+        mRing.publish(frame);
+        return true;
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public void ringConsume(Blackhole blackhole) {
+        PcmFrame frame = mRing.poll();
+        if (frame != null) {
+            blackhole.consume(frame.mData[0]);
+            mRing.release(frame);
+        }
+    }
+
+    /**
+     * Async play queue of {@link StreamAudioPlayer}, with two producers.
+     */
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(2)
+    public boolean queueProduce() {
+        PcmFrame frame = mPool.obtain();
+        System.arraycopy(mData, 0, frame.mData, 0, FRAME_SIZE);
+        frame.mSize = FRAME_SIZE;
+        if (!mQueue.offer(frame)) {
+            frame.release();
+            return false;
+        }
+        return true;
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public void queueConsume(Blackhole blackhole) {
+        PcmFrame frame = mQueue.poll();
+        if (frame != null) {
+            blackhole.consume(frame.mData[0]);
+            frame.release();
+        }
+    }
+
+    /**
+     * Copy into a pooled reference counted frame, as {@link PcmFrameHub} does for each buffer.
+     */
+    @Benchmark
+    @Group("pool")
+    @GroupThreads(1)
+    public void poolObtainRelease(Blackhole blackhole) {
+        PcmFrame frame = mPool.obtain();
+        System.arraycopy(mData, 0, frame.mData, 0, FRAME_SIZE);
+        frame.retain();
+        blackhole.consume(frame.mData[0]);
+        frame.release();
+        frame.release();
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serve random bytes from a local origin through {@link HttpCacheProxy} and check the responses,
+ * the origin requests and the cache size, exit with 1 if any check fails:
+ * ./gradlew :benchmark:httpCacheProxyCheck, it's part of ./gradlew :benchmark:check.
+ *
+ * The origin sleeps between chunks, so downloads are still running when ranged requests come.
+ */
+
+public final class HttpCacheProxyCheck {
+    private static final int FILE_SIZE = 3 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long MAX_CACHE_BYTES = 5 * 1024 * 1024;
+    // beyond the relay threshold of HttpCacheProxy
+    private static final int FAR_START = 2000000;
+    // the origin drops the first download of this path after 1 MiB
+    private static final String FLAKY_PATH = "/flaky.m4a";
+    private static final int FLAKY_LIMIT = 1024 * 1024;
+    private static final long WAIT_MILLIS = 10000;
+
+    private static final byte[] DATA = new byte[FILE_SIZE];
+    private static final List<String> sRequests = new CopyOnWriteArrayList<>();
+    private static final AtomicInteger sFlakyFailures = new AtomicInteger(1);
+
+    private static boolean sPass = true;
+
+    private HttpCacheProxyCheck() {
+        // no instance
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Random(42).nextBytes(DATA);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", HttpCacheProxyCheck::handle);
+        server.setExecutor(executor);
+        server.start();
+        File cacheDir = Files.createTempDirectory("http-cache-proxy").toFile();
+        HttpCacheProxy proxy = new HttpCacheProxy(cacheDir, MAX_CACHE_BYTES);
+        proxy.start();
+        try {
+            String origin = "http://127.0.0.1:" + server.getAddress().getPort();
+            run(proxy, origin);
+        } finally {
+            proxy.stop();
+            server.stop(0);
+            executor.shutdownNow();
+            File[] files = cacheDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            cacheDir.delete();
+        }
+        System.exit(sPass ? 0 : 1);
+    }
+
+    private static void run(HttpCacheProxy proxy, String origin) throws Exception {
+        String first = origin + "/first.m4a";
+        String url = proxy.getProxyUrl(first);
+        check("full", fetch(url, null), 200, 0, FILE_SIZE);
+        check("ranged", fetch(url, "bytes=1000-1999"), 206, 1000, 1000);
+        check("cached", proxy.isCached(first));
+
+        int requests = sRequests.size();
+        check("replay full", fetch(url, null), 200, 0, FILE_SIZE);
+        check("replay ranged", fetch(url, "bytes=" + FAR_START + "-"), 206, FAR_START,
+                FILE_SIZE - FAR_START);
+        check("replay without origin request", sRequests.size() == requests);
+
+        String second = origin + "/second.m4a";
+        String secondUrl = proxy.getProxyUrl(second);
+        check("relayed", fetch(secondUrl, "bytes=" + FAR_START + "-"), 206, FAR_START,
+                FILE_SIZE - FAR_START);
+        check("relayed from origin",
+                sRequests.contains("/second.m4a bytes=" + FAR_START + "-"));
+        check("full while relayed", fetch(secondUrl, null), 200, 0, FILE_SIZE);
+        check("second cached", awaitCached(proxy, second));
+        check("first evicted", !proxy.isCached(first));
+        checkBudget(proxy);
+
+        String flaky = origin + FLAKY_PATH;
+        String flakyUrl = proxy.getProxyUrl(flaky);
+        Response dropped = fetch(flakyUrl, null);
+        check("dropped download fails", dropped.mBody.length < FILE_SIZE);
+        check("resumed", fetch(flakyUrl, null), 200, 0, FILE_SIZE);
+        String resumed = null;
+        for (String request : sRequests) {
+            if (request.startsWith(FLAKY_PATH + " bytes=")) {
+                resumed = request;
+            }
+        }
+        check("resumed with range " + resumed, resumed != null);
+        check("flaky cached", awaitCached(proxy, flaky));
+        checkBudget(proxy);
+
+        String base = url.substring(0, url.lastIndexOf('/') + 1);
+        check("bad escape", fetch(base + "%zz", null).mCode == 400);
+        check("no token", fetch(url.replaceFirst("/[0-9a-f]{32}/", "/"), null).mCode == 403);
+        for (String range : new String[] { "bytes=100", "bytes=abc-", "bytes=-500" }) {
+            check("range " + range, fetch(url, range).mCode == 416);
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        sRequests.add(path + " " + range);
+        int start = 0;
+        int end = FILE_SIZE - 1;
+        if (range != null) {
+            String[] parts = range.substring("bytes=".length()).split("-", -1);
+            start = Integer.parseInt(parts[0]);
+            if (!parts[1].isEmpty()) {
+                end = Integer.parseInt(parts[1]);
+            }
+            exchange.getResponseHeaders()
+                    .add("Content-Range", "bytes " + start + "-" + end + "/" + FILE_SIZE);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "audio/mp4");
+        exchange.sendResponseHeaders(range != null ? 206 : 200, end - start + 1);
+        boolean drop = path.equals(FLAKY_PATH) && sFlakyFailures.getAndDecrement() > 0;
+        OutputStream output = exchange.getResponseBody();
+        for (int position = start; position <= end; position += CHUNK_SIZE) {
+            if (drop && position - start >= FLAKY_LIMIT) {
+                output.flush();
+                // the server closes the connection when the handler throws
+                throw new IOException("dropped");
+            }
+            output.write(DATA, position, Math.min(CHUNK_SIZE, end - position + 1));
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted");
+            }
+        }
+        output.close();
+    }
+
+    private static Response fetch(String url, String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        Response response = new Response();
+        try {
+            if (range != null) {
+                connection.setRequestProperty("Range", range);
+            }
+            response.mCode = connection.getResponseCode();
+            if (response.mCode < 400) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[CHUNK_SIZE];
+                try (InputStream input = connection.getInputStream()) {
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        body.write(buffer, 0, read);
+                    }
+                } catch (IOException e) {
+                    // truncated, keep what is read
+                }
+                response.mBody = body.toByteArray();
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return response;
+    }
+
+    private static boolean awaitCached(HttpCacheProxy proxy, String url)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!proxy.isCached(url) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // eviction runs after the download completes
+        Thread.sleep(100);
+        return proxy.isCached(url);
+    }
+
+    private static void checkBudget(HttpCacheProxy proxy) {
+        long size = proxy.getCacheSizeBytes();
+        check("cache size " + size + " within " + MAX_CACHE_BYTES, size <= MAX_CACHE_BYTES);
+    }
+
+    private static void check(String name, Response response, int code, int start, int length) {
+        boolean pass = response.mCode == code && response.mBody.length == length;
+        for (int i = 0; pass && i < length; i++) {
+            pass = response.mBody[i] == DATA[start + i];
+        }
+        System.out.printf("%s: %d, %d bytes, %s%n", name, response.mCode, response.mBody.length,
+                pass ? "ok" : "FAIL");
+        sPass &= pass;
+    }
+
+    private static void check(String name, boolean pass) {
+        System.out.printf("%s: %s%n", name, pass ? "ok" : "FAIL");
+        sPass &= pass;
+    }
+
+    private static final class Response {
+        int mCode;
+        byte[] mBody = new byte[0];
+    }
+}
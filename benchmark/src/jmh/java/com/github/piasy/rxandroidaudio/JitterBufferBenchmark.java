@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * {@link JitterBuffer} driven by a simulated packet arrival trace, 10 ms packets with uniform
+ * arrival jitter and random loss. Besides throughput, it prints
+ * playout quality of the trace.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JitterBufferBenchmark {
+
+    private static final int FRAME_SIZE = 882;
+    private static final int FRAME_MILLIS = 10;
+    private static final int PACKETS = 1000;
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(FRAME_MILLIS);
+
+    @Param({ "5", "60" })
+    public int mJitterMillis;
+
+    @Param({ "2" })
+    public int mLossPercent;
+
+    private long[] mArrivals;
+    private long[] mSequences;
+    private byte[] mPacket;
+    private byte[] mOut;
+    private JitterBuffer mJitterBuffer;
+    private int mLastConcealed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        int count = 0;
+        long[] arrivals = new long[PACKETS];
+        long[] sequences = new long[PACKETS];
+        for (int i = 0; i < PACKETS; i++) {
+            if (random.nextInt(100) < mLossPercent) {
+                continue;
+            }
+            arrivals[count] = i * FRAME_NANOS
+                              + (long) (random.nextDouble() * mJitterMillis * 1_000_000);
+            sequences[count] = i;
+            count++;
+        }
+        // sort by arrival time, which reorders packets
+        for (int i = 1; i < count; i++) {
+            for (int j = i; j > 0 && arrivals[j - 1] > arrivals[j]; j--) {
+                long arrival = arrivals[j];
+                arrivals[j] = arrivals[j - 1];
+                arrivals[j - 1] = arrival;
+                long sequence = sequences[j];
+                sequences[j] = sequences[j - 1];
+                sequences[j - 1] = sequence;
+            }
+        }
+        mArrivals = new long[count];
+        mSequences = new long[count];
+        System.arraycopy(arrivals, 0, mArrivals, 0, count);
+        System.arraycopy(sequences, 0, mSequences, 0, count);
+        mPacket = new byte[FRAME_SIZE];
+        random.nextBytes(mPacket);
+        mOut = new byte[FRAME_SIZE];
+        mJitterBuffer = new JitterBuffer(FRAME_SIZE, FRAME_MILLIS, 64, 20, 300);
+    }
+
+    /**
+     * One whole trace per op, returns the concealed frame count.
+     */
+    @Benchmark
+    public int playTrace() {
+        JitterBuffer jitterBuffer = mJitterBuffer;
+        jitterBuffer.reset();
+        int next = 0;
+        int concealed = 0;
+        long end = (PACKETS + 30) * FRAME_NANOS;
+        for (long now = 0; now < end; now += FRAME_NANOS) {
+            while (next < mArrivals.length && mArrivals[next] <= now) {
+                jitterBuffer.put(mSequences[next], mPacket, FRAME_SIZE, mArrivals[next]);
+                next++;
+            }
+            if (jitterBuffer.read(mOut) == JitterBuffer.RESULT_CONCEALED) {
+                concealed++;
+            }
+        }
+        mLastConcealed = concealed;
+        return concealed;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println("jitter " + mJitterMillis + " ms, loss " + mLossPercent
+                           + "%: concealed " + mLastConcealed + " of " + (PACKETS + 30)
+                           + " frames, target delay " + mJitterBuffer.getTargetDelayMillis()
+                           + " ms");
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drive {@link JitterBuffer} with simulated packet arrival traces and check its playout, exit
+ * with 1 if any check fails: ./gradlew :benchmark:jitterBufferTrace, it's part of
+ * ./gradlew :benchmark:check.
+ *
+ * Every sample of a packet holds its sequence number, so the played order could be read back
+ * from the output.
+ */
+
+public final class JitterBufferTrace {
+    private static final int FRAME_SIZE = 882;
+    private static final int FRAME_MILLIS = 10;
+    private static final int CAPACITY = 32;
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(FRAME_MILLIS);
+    // network transit of every packet, on top of the jitter
+    private static final long TRANSIT_NANOS = TimeUnit.MILLISECONDS.toNanos(30);
+
+    private JitterBufferTrace() {
+        // no instance
+    }
+
+    public static void main(String[] args) {
+        boolean pass = checkReorder();
+        pass &= checkIsolatedLoss();
+        pass &= checkJitterStep();
+        System.exit(pass ? 0 : 1);
+    }
+
+    /**
+     * Adjacent packets swapped, within capacity, must be played in order without concealment.
+     */
+    private static boolean checkReorder() {
+        int packets = 500;
+        long[] arrivals = new long[packets];
+        for (int i = 0; i < packets; i++) {
+            // odd packets overtake their preceding even ones by 1 ms
+            long overtaken = i % 2 == 0 ? FRAME_NANOS + 1_000_000 : 0;
+            arrivals[i] = sendTime(i) + TRANSIT_NANOS + overtaken;
+        }
+        JitterBuffer jitterBuffer = newJitterBuffer();
+        Playout playout = play(jitterBuffer, arrivals, 2 * packets);
+
+        boolean pass = playout.mOutOfOrder == 0 && jitterBuffer.getConcealedCount() == 0
+                       && jitterBuffer.getLateCount() == 0
+                       && playout.mPlayed + jitterBuffer.getDroppedCount() == packets;
+        System.out.printf("reorder: played %d, dropped %d, out of order %d, concealed %d, "
+                          + "late %d, %s%n", playout.mPlayed, jitterBuffer.getDroppedCount(),
+                playout.mOutOfOrder, jitterBuffer.getConcealedCount(),
+                jitterBuffer.getLateCount(), pass ? "ok" : "FAIL");
+        return pass;
+    }
+
+    /**
+     * Every 25th packet lost, each loss must be concealed, without rebuffering.
+     */
+    private static boolean checkIsolatedLoss() {
+        int packets = 500;
+        long[] arrivals = new long[packets];
+        int lost = 0;
+        for (int i = 0; i < packets; i++) {
+            if (i % 25 == 12) {
+                arrivals[i] = -1;
+                lost++;
+            } else {
+                arrivals[i] = sendTime(i) + TRANSIT_NANOS;
+            }
+        }
+        JitterBuffer jitterBuffer = newJitterBuffer();
+        Playout playout = play(jitterBuffer, arrivals, packets);
+
+        long concealed = jitterBuffer.getConcealedCount();
+        boolean pass = concealed >= lost && concealed <= 2L * lost && playout.mRebuffered == 0
+                       && playout.mOutOfOrder == 0;
+        System.out.printf("isolated loss: lost %d, concealed %d, rebuffered %d, out of order %d, "
+                          + "%s%n", lost, concealed, playout.mRebuffered, playout.mOutOfOrder,
+                pass ? "ok" : "FAIL");
+        return pass;
+    }
+
+    /**
+     * Jitter steps from 2 ms to 60 ms and back, target delay must follow it up and down, and
+     * buffered latency must be shrunk by dropping frames once jitter calms.
+     */
+    private static boolean checkJitterStep() {
+        int calm = 300;
+        int jittery = 300;
+        int packets = calm + jittery + 2 * calm;
+        Random random = new Random(42);
+        long[] arrivals = new long[packets];
+        for (int i = 0; i < packets; i++) {
+            int jitterMillis = i >= calm && i < calm + jittery ? 60 : 2;
+            arrivals[i] = sendTime(i) + TRANSIT_NANOS
+                          + (long) (random.nextDouble() * jitterMillis * 1_000_000);
+        }
+        JitterBuffer jitterBuffer = newJitterBuffer();
+        long before = targetDelayAt(jitterBuffer, arrivals, calm);
+        jitterBuffer.reset();
+        long during = targetDelayAt(jitterBuffer, arrivals, calm + jittery);
+        jitterBuffer.reset();
+        long after = targetDelayAt(jitterBuffer, arrivals, packets);
+
+        boolean pass = during >= before + 2 * FRAME_MILLIS && after < during
+                       && after <= before + FRAME_MILLIS && jitterBuffer.getDroppedCount() > 0;
+        System.out.printf("jitter step: target delay %d ms, %d ms with jitter, %d ms after, "
+                          + "dropped %d, %s%n", before, during, after,
+                jitterBuffer.getDroppedCount(), pass ? "ok" : "FAIL");
+        return pass;
+    }
+
+    private static long targetDelayAt(JitterBuffer jitterBuffer, long[] arrivals, int frames) {
+        play(jitterBuffer, arrivals, frames);
+        return jitterBuffer.getTargetDelayMillis();
+    }
+
+    private static JitterBuffer newJitterBuffer() {
+        return new JitterBuffer(FRAME_SIZE, FRAME_MILLIS, CAPACITY, 20, 300);
+    }
+
+    private static long sendTime(int sequence) {
+        return sequence * FRAME_NANOS;
+    }
+
+    /**
+     * Read one frame every frame duration, putting packets arrived by then first, until
+     * {@code frames} are read or the trace is played out.
+     *
+     * @param arrivals arrival time of each sequence, negative if lost.
+     */
+    private static Playout play(JitterBuffer jitterBuffer, long[] arrivals, int frames) {
+        Integer[] order = new Integer[arrivals.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(arrivals[a], arrivals[b]));
+
+        Playout playout = new Playout();
+        byte[] packet = new byte[FRAME_SIZE];
+        byte[] out = new byte[FRAME_SIZE];
+        int next = 0;
+        while (next < order.length && arrivals[order[next]] < 0) {
+            next++;
+        }
+        long lastPlayed = -1;
+        boolean started = false;
+        for (int frame = 0; frame < frames; frame++) {
+            long now = sendTime(frame);
+            while (next < order.length && arrivals[order[next]] <= now) {
+                int sequence = order[next];
+                fill(packet, sequence);
+                jitterBuffer.put(sequence, packet, FRAME_SIZE, arrivals[sequence]);
+                next++;
+            }
+            if (next == order.length && jitterBuffer.getBufferedFrames() == 0) {
+                // don't count the end of trace as loss
+                break;
+            }
+            int result = jitterBuffer.read(out);
+            if (result == JitterBuffer.RESULT_PLAYED) {
+                started = true;
+                playout.mPlayed++;
+                // the head may be cross faded, the tail is intact
+                long sequence = sampleAt(out, FRAME_SIZE / 2 - 1);
+                if (sequence <= lastPlayed) {
+                    playout.mOutOfOrder++;
+                }
+                lastPlayed = sequence;
+            } else if (result == JitterBuffer.RESULT_BUFFERING && started
+                       && next < order.length) {
+                playout.mRebuffered++;
+            }
+        }
+        return playout;
+    }
+
+    private static void fill(byte[] packet, int sequence) {
+        for (int i = 0; i < packet.length; i += 2) {
+            packet[i] = (byte) sequence;
+            packet[i + 1] = (byte) (sequence >> 8);
+        }
+    }
+
+    private static int sampleAt(byte[] data, int index) {
+        return (short) ((data[2 * index] & 0xFF) | (data[2 * index + 1] << 8));
+    }
+
+    private static final class Playout {
+        int mPlayed;
+        int mOutOfOrder;
+        int mRebuffered;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Sample conversion of the 16 bit record path.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PcmConvertBenchmark {
+
+    @Param({ "2048", "8192" })
+    public int mBufferSize;
+
+    private short[] mShorts;
+    private byte[] mBytes;
+    private ByteBuffer mDirectBuffer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mShorts = new short[mBufferSize / 2];
+        for (int i = 0; i < mShorts.length; i++) {
+            mShorts[i] = (short) random.nextInt();
+        }
+        mBytes = new byte[mBufferSize];
+        mDirectBuffer = ByteBuffer.allocateDirect(mBufferSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Benchmark
+    public byte[] short2byte() {
+        return PcmUtils.short2byte(mShorts, mShorts.length, mBytes);
+    }
+
+    /**
+     * Bulk put into a direct buffer, the copy the direct buffer record path avoids entirely.
+     */
+    @Benchmark
+    public ByteBuffer short2directBuffer() {
+        mDirectBuffer.clear();
+        mDirectBuffer.asShortBuffer().put(mShorts);
+        return mDirectBuffer;
+    }
+}
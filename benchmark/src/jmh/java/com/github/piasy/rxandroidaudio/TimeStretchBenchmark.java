@@ -0,0 +1,83 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Time stretch of one 1024 samples buffer, the same unit as PitchShiftBenchmark, so their
+ * scores compare directly.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TimeStretchBenchmark {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BUFFER_SIZE = 2048;
+
+    @Param({ "0.5", "1.5", "3" })
+    public float mSpeed;
+
+    private TimeStretcher mTimeStretcher;
+    private byte[] mInput;
+    private byte[] mOutput;
+
+    @Setup
+    public void setUp() {
+        mTimeStretcher = new TimeStretcher(SAMPLE_RATE, 1);
+        mTimeStretcher.setSpeed(mSpeed);
+        mInput = new byte[BUFFER_SIZE];
+        for (int i = 0; i < BUFFER_SIZE / 2; i++) {
+            short sample = (short) (8000 * Math.sin(2 * Math.PI * 220 * i / SAMPLE_RATE)
+                                    + 4000 * Math.sin(2 * Math.PI * 660 * i / SAMPLE_RATE));
+            mInput[2 * i] = (byte) sample;
+            mInput[2 * i + 1] = (byte) (sample >> 8);
+        }
+        mOutput = new byte[4096];
+    }
+
+    @Benchmark
+    public int stretch() {
+        int offset = 0;
+        int produced = 0;
+        while (offset < BUFFER_SIZE) {
+            offset += mTimeStretcher.write(mInput, offset, BUFFER_SIZE - offset);
+            int read;
+            while ((read = mTimeStretcher.read(mOutput, 0, mOutput.length)) > 0) {
+                produced += read;
+            }
+        }
+        return produced;
+    }
+}
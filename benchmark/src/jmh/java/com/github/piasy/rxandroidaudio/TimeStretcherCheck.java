@@ -0,0 +1,186 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import java.util.Random;
+
+/**
+ * Stretch a 440 + 880 Hz signal at several speeds, written in random chunk sizes, and check the
+ * output, exit with 1 if any check fails: ./gradlew :benchmark:timeStretcherCheck, it's part of
+ * ./gradlew :benchmark:check.
+ *
+ * Output length must follow the speed, the zero crossing rate, i.e. the pitch, must not change,
+ * and splices must not add a sample step or a level dip the signal itself doesn't have.
+ */
+
+public final class TimeStretcherCheck {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int INPUT_FRAMES = 3 * SAMPLE_RATE;
+    private static final float[] SPEEDS = { 0.5F, 0.75F, 1F, 1.5F, 2F, 3F };
+    // flush pushes the tail out with silence, at most the input buffer of the stretcher
+    private static final int MAX_PADDING_MILLIS = 250;
+    private static final double MAX_ZERO_CROSSING_DIFF = 0.03;
+    private static final double MAX_STEP_RATIO = 1.2;
+    // a splice out of phase cancels itself in the cross fade, which shows as a level dip
+    private static final int RMS_WINDOW_MILLIS = 5;
+    private static final double MIN_RMS_RATIO = 0.95;
+    // the head and the end of stream are not measured
+    private static final int MARGIN_FRAMES = SAMPLE_RATE / 10;
+
+    private TimeStretcherCheck() {
+        // no instance
+    }
+
+    public static void main(String[] args) {
+        boolean pass = true;
+        for (int channelCount = 1; channelCount <= 2; channelCount++) {
+            byte[] input = signal(channelCount);
+            Measure reference = measure(input, INPUT_FRAMES, channelCount);
+            for (float speed : SPEEDS) {
+                pass &= check(input, reference, channelCount, speed);
+            }
+        }
+        System.exit(pass ? 0 : 1);
+    }
+
+    private static boolean check(byte[] input, Measure reference, int channelCount,
+            float speed) {
+        byte[] output = new byte[(int) (input.length / TimeStretcher.MIN_SPEED) + SAMPLE_RATE * 4];
+        int outputBytes = stretch(input, output, channelCount, speed);
+        int frames = outputBytes / 2 / channelCount;
+        double expected = INPUT_FRAMES / speed;
+        double padding = frames - expected;
+        // the tail of the input is repeated after the end of stream silence at low speed
+        Measure measure = measure(output, (int) expected, channelCount);
+        double zeroCrossingDiff = Math.abs(measure.mZeroCrossingRate / reference.mZeroCrossingRate
+                                           - 1);
+
+        boolean pass = padding >= 0 && padding <= SAMPLE_RATE * MAX_PADDING_MILLIS / 1000
+                       && zeroCrossingDiff <= MAX_ZERO_CROSSING_DIFF
+                       && measure.mMaxStep <= reference.mMaxStep * MAX_STEP_RATIO
+                       && measure.mMinRms >= reference.mMinRms * MIN_RMS_RATIO
+                       && measure.mChannelsEqual;
+        System.out.printf("%d ch, speed %.2f: %d frames, expected %.0f + padding, zero crossings "
+                          + "%.0f/s vs %.0f/s, max step %d vs %d, min rms %.0f vs %.0f, %s%n",
+                channelCount, speed, frames, expected, measure.mZeroCrossingRate,
+                reference.mZeroCrossingRate, measure.mMaxStep, reference.mMaxStep,
+                measure.mMinRms, reference.mMinRms, pass ? "ok" : "FAIL");
+        return pass;
+    }
+
+    /**
+     * Write the input in random chunk sizes, odd ones included, read the output in between.
+     */
+    private static int stretch(byte[] input, byte[] output, int channelCount, float speed) {
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, channelCount);
+        stretcher.setSpeed(speed);
+        Random random = new Random(channelCount);
+        int consumed = 0;
+        int produced = 0;
+        while (consumed < input.length) {
+            int length = Math.min(random.nextInt(3000) + 1, input.length - consumed);
+            int written = 0;
+            while (written < length) {
+                written += stretcher.write(input, consumed + written, length - written);
+                produced += drain(stretcher, output, produced);
+            }
+            consumed += length;
+        }
+        stretcher.flush();
+        produced += drain(stretcher, output, produced);
+        return produced;
+    }
+
+    private static int drain(TimeStretcher stretcher, byte[] output, int offset) {
+        int produced = 0;
+        int read;
+        while ((read = stretcher.read(output, offset + produced, 4096)) > 0) {
+            produced += read;
+        }
+        return produced;
+    }
+
+    private static byte[] signal(int channelCount) {
+        byte[] data = new byte[INPUT_FRAMES * channelCount * 2];
+        for (int i = 0; i < INPUT_FRAMES; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            short value = (short) (8000 * Math.sin(2 * Math.PI * 440 * t)
+                                   + 3000 * Math.sin(2 * Math.PI * 880 * t));
+            for (int c = 0; c < channelCount; c++) {
+                int index = (i * channelCount + c) * 2;
+                data[index] = (byte) value;
+                data[index + 1] = (byte) (value >> 8);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Zero crossing rate, max step between adjacent samples and min short term RMS of the first
+     * channel, between the margins.
+     */
+    private static Measure measure(byte[] data, int frames, int channelCount) {
+        Measure measure = new Measure();
+        int from = MARGIN_FRAMES;
+        int to = frames - MARGIN_FRAMES;
+        int zeroCrossings = 0;
+        int previous = sampleAt(data, from * channelCount);
+        measure.mChannelsEqual = true;
+        for (int i = from + 1; i < to; i++) {
+            int value = sampleAt(data, i * channelCount);
+            if ((previous < 0) != (value < 0) && value != 0) {
+                zeroCrossings++;
+            }
+            measure.mMaxStep = Math.max(measure.mMaxStep, Math.abs(value - previous));
+            for (int c = 1; c < channelCount; c++) {
+                measure.mChannelsEqual &= sampleAt(data, i * channelCount + c) == value;
+            }
+            previous = value;
+        }
+        measure.mZeroCrossingRate = zeroCrossings * (double) SAMPLE_RATE / (to - from);
+        int window = SAMPLE_RATE * RMS_WINDOW_MILLIS / 1000;
+        measure.mMinRms = Double.MAX_VALUE;
+        for (int start = from; start + window <= to; start += window / 2) {
+            double sum = 0;
+            for (int i = start; i < start + window; i++) {
+                int value = sampleAt(data, i * channelCount);
+                sum += (double) value * value;
+            }
+            measure.mMinRms = Math.min(measure.mMinRms, Math.sqrt(sum / window));
+        }
+        return measure;
+    }
+
+    private static int sampleAt(byte[] data, int index) {
+        return (short) ((data[2 * index] & 0xFF) | (data[2 * index + 1] << 8));
+    }
+
+    private static final class Measure {
+        double mZeroCrossingRate;
+        int mMaxStep;
+        double mMinRms;
+        boolean mChannelsEqual;
+    }
+}
@@ -0,0 +1,292 @@
+// Native benchmark of the audio-processor library, run on host: ./gradlew :benchmark:nativeBenchmark
+//
+// It reports frames of 1024 samples per second of:
+// - the FFT stage, i.e. window + forward + inverse transform, of the legacy complex smbFft with
+//   per-sample cos() window, and of the cached table real FFT which replaced it;
+// - the whole smbPitchShift.
+//
+// Then it compares the output of smbPitchShift with the legacy shifter, which is the same except
+// for the complex smbFft, over frames of 1024 samples at 1.5x. They differ by the single
+// precision tables, which gSumPhase accumulates, so the difference grows with frame count.
+
+#include <math.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <jni.h>
+#include "realFft.h"
+
+#define FRAME_SIZE 1024
+#define OSAMP 4
+#define SECONDS 2.
+#define SAMPLE_RATE 44100
+#define COMPARE_FRAMES 300
+
+jlong Java_com_github_piasy_audioprocessor_NativePitchShifter_create(JNIEnv *env, jclass type);
+
+void Java_com_github_piasy_audioprocessor_NativePitchShifter_release(JNIEnv *env, jclass type,
+                                                                 jlong handle);
+
+void smbPitchShift(void *shifter, float pitchShift, long numSampsToProcess, long fftFrameSize,
+                   long osamp, float sampleRate, float *indata, float *outdata);
+
+// the FFT used by smbPitchShift.c before real FFT, (C)1996 S.M.Bernsee, kept as the baseline
+static void legacyFft(float *fftBuffer, long fftFrameSize, long sign) {
+    float wr, wi, arg, *p1, *p2, temp;
+    float tr, ti, ur, ui, *p1r, *p1i, *p2r, *p2i;
+    long i, bitm, j, le, le2, k;
+
+    for (i = 2; i < 2 * fftFrameSize - 2; i += 2) {
+        for (bitm = 2, j = 0; bitm < 2 * fftFrameSize; bitm <<= 1) {
+            if (i & bitm) j++;
+            j <<= 1;
+        }
+        if (i < j) {
+            p1 = fftBuffer + i;
+            p2 = fftBuffer + j;
+            temp = *p1;
+            *(p1++) = *p2;
+            *(p2++) = temp;
+            temp = *p1;
+            *p1 = *p2;
+            *p2 = temp;
+        }
+    }
+    for (k = 0, le = 2; k < (long) (log(fftFrameSize) / log(2.) + .5); k++) {
+        le <<= 1;
+        le2 = le >> 1;
+        ur = 1.0;
+        ui = 0.0;
+        arg = M_PI / (le2 >> 1);
+        wr = cos(arg);
+        wi = sign * sin(arg);
+        for (j = 0; j < le2; j += 2) {
+            p1r = fftBuffer + j;
+            p1i = p1r + 1;
+            p2r = p1r + le2;
+            p2i = p2r + 1;
+            for (i = j; i < 2 * fftFrameSize; i += le) {
+                tr = *p2r * ur - *p2i * ui;
+                ti = *p2r * ui + *p2i * ur;
+                *p2r = *p1r - tr;
+                *p2i = *p1i - ti;
+                *p1r += tr;
+                *p1i += ti;
+                p1r += le;
+                p1i += le;
+                p2r += le;
+                p2i += le;
+            }
+            tr = ur * wr - ui * wi;
+            ui = ur * wi + ui * wr;
+            ur = tr;
+        }
+    }
+}
+
+// smbPitchShift before real FFT, for comparison, with its analysis and synthesis unchanged
+typedef struct {
+    float inFifo[FRAME_SIZE];
+    float outFifo[FRAME_SIZE];
+    float work[2 * FRAME_SIZE];
+    float lastPhase[FRAME_SIZE / 2 + 1];
+    float sumPhase[FRAME_SIZE / 2 + 1];
+    float outputAccum[2 * FRAME_SIZE];
+    float anaFreq[FRAME_SIZE];
+    float anaMagn[FRAME_SIZE];
+    float synFreq[FRAME_SIZE];
+    float synMagn[FRAME_SIZE];
+    long rover;
+} LegacyShifter;
+
+static void legacyPitchShift(LegacyShifter *s, float pitchShift, long numSamps, float *in,
+                             float *out) {
+    double magn, phase, tmp, window;
+    long i, k, qpd, index;
+    long frameSize2 = FRAME_SIZE / 2;
+    long stepSize = FRAME_SIZE / OSAMP;
+    double freqPerBin = SAMPLE_RATE / (double) FRAME_SIZE;
+    double expct = 2. * M_PI * (double) stepSize / (double) FRAME_SIZE;
+    long inFifoLatency = FRAME_SIZE - stepSize;
+
+    if (s->rover == 0) s->rover = inFifoLatency;
+    for (i = 0; i < numSamps; i++) {
+        s->inFifo[s->rover] = in[i];
+        out[i] = s->outFifo[s->rover - inFifoLatency];
+        s->rover++;
+        if (s->rover < FRAME_SIZE) {
+            continue;
+        }
+        s->rover = inFifoLatency;
+        for (k = 0; k < FRAME_SIZE; k++) {
+            window = -.5 * cos(2. * M_PI * (double) k / (double) FRAME_SIZE) + .5;
+            s->work[2 * k] = s->inFifo[k] * window;
+            s->work[2 * k + 1] = 0.;
+        }
+        legacyFft(s->work, FRAME_SIZE, -1);
+        for (k = 0; k <= frameSize2; k++) {
+            double real = s->work[2 * k];
+            double imag = s->work[2 * k + 1];
+            magn = 2. * sqrt(real * real + imag * imag);
+            phase = atan2(imag, real);
+            tmp = phase - s->lastPhase[k];
+            s->lastPhase[k] = phase;
+            tmp -= (double) k * expct;
+            qpd = tmp / M_PI;
+            if (qpd >= 0) qpd += qpd & 1;
+            else qpd -= qpd & 1;
+            tmp -= M_PI * (double) qpd;
+            tmp = OSAMP * tmp / (2. * M_PI);
+            s->anaMagn[k] = magn;
+            s->anaFreq[k] = (double) k * freqPerBin + tmp * freqPerBin;
+        }
+        memset(s->synMagn, 0, sizeof(s->synMagn));
+        memset(s->synFreq, 0, sizeof(s->synFreq));
+        for (k = 0; k <= frameSize2; k++) {
+            index = (long) (k * pitchShift);
+            if (index <= frameSize2) {
+                s->synMagn[index] += s->anaMagn[k];
+                s->synFreq[index] = s->anaFreq[k] * pitchShift;
+            }
+        }
+        for (k = 0; k <= frameSize2; k++) {
+            magn = s->synMagn[k];
+            tmp = (s->synFreq[k] - (double) k * freqPerBin) / freqPerBin;
+            tmp = 2. * M_PI * tmp / OSAMP + (double) k * expct;
+            s->sumPhase[k] += tmp;
+            phase = s->sumPhase[k];
+            s->work[2 * k] = magn * cos(phase);
+            s->work[2 * k + 1] = magn * sin(phase);
+        }
+        for (k = FRAME_SIZE + 2; k < 2 * FRAME_SIZE; k++) s->work[k] = 0.;
+        legacyFft(s->work, FRAME_SIZE, 1);
+        for (k = 0; k < FRAME_SIZE; k++) {
+            window = -.5 * cos(2. * M_PI * (double) k / (double) FRAME_SIZE) + .5;
+            s->outputAccum[k] += 2. * window * s->work[2 * k] / (frameSize2 * OSAMP);
+        }
+        for (k = 0; k < stepSize; k++) s->outFifo[k] = s->outputAccum[k];
+        memmove(s->outputAccum, s->outputAccum + stepSize, FRAME_SIZE * sizeof(float));
+        for (k = 0; k < inFifoLatency; k++) s->inFifo[k] = s->inFifo[k + stepSize];
+    }
+}
+
+static double now() {
+    struct timespec time;
+    clock_gettime(CLOCK_MONOTONIC, &time);
+    return time.tv_sec + time.tv_nsec * 1e-9;
+}
+
+static float input[FRAME_SIZE];
+static float output[FRAME_SIZE];
+static float work[2 * FRAME_SIZE + 2];
+static FftTables tables;
+static volatile float sink;
+
+static void legacyStage() {
+    long k;
+    for (k = 0; k < FRAME_SIZE; k++) {
+        double window = -.5 * cos(2. * M_PI * (double) k / (double) FRAME_SIZE) + .5;
+        work[2 * k] = input[k] * window;
+        work[2 * k + 1] = 0.;
+    }
+    legacyFft(work, FRAME_SIZE, -1);
+    for (k = FRAME_SIZE + 2; k < 2 * FRAME_SIZE; k++) work[k] = 0.;
+    legacyFft(work, FRAME_SIZE, 1);
+    for (k = 0; k < FRAME_SIZE; k++) {
+        double window = -.5 * cos(2. * M_PI * (double) k / (double) FRAME_SIZE) + .5;
+        output[k] = window * work[2 * k];
+    }
+    sink = output[FRAME_SIZE / 2];
+}
+
+static void realStage() {
+    long k;
+    for (k = 0; k < FRAME_SIZE; k++) {
+        work[k] = input[k] * tables.window[k];
+    }
+    realFft(&tables, work);
+    realInverseFft(&tables, work);
+    for (k = 0; k < FRAME_SIZE; k++) {
+        output[k] = tables.window[k] * work[k];
+    }
+    sink = output[FRAME_SIZE / 2];
+}
+
+static void *shifter;
+
+static void pitchShift() {
+    smbPitchShift(shifter, 1.5f, FRAME_SIZE, FRAME_SIZE, OSAMP, 44100, input, output);
+    sink = output[FRAME_SIZE / 2];
+}
+
+// print max difference relative to peak of smbPitchShift and the legacy shifter, at some frame
+// counts, on a signal of a few partials and some noise
+static void compareWithLegacy() {
+    static LegacyShifter legacy;
+    float legacyOut[FRAME_SIZE];
+    void *current = (void *) (intptr_t)
+            Java_com_github_piasy_audioprocessor_NativePitchShifter_create(NULL, NULL);
+    uint32_t seed = 1;
+    double peak = 1e-9;
+    double maxDiff = 0.;
+    long frame, i;
+
+    printf("smbPitchShift vs legacy complex FFT, 1.5x, frames of %d samples:\n", FRAME_SIZE);
+    for (frame = 1; frame <= COMPARE_FRAMES; frame++) {
+        for (i = 0; i < FRAME_SIZE; i++) {
+            double t = (double) ((frame - 1) * FRAME_SIZE + i) / SAMPLE_RATE;
+            seed = seed * 1664525u + 1013904223u;
+            input[i] = (float) (0.25 * sin(2 * M_PI * 220 * t) + 0.12 * sin(2 * M_PI * 660 * t)
+                                + 0.06 * sin(2 * M_PI * 1870 * t)
+                                + 0.015 * ((double) seed / 4294967296. - .5));
+        }
+        smbPitchShift(current, 1.5f, FRAME_SIZE, FRAME_SIZE, OSAMP, SAMPLE_RATE, input, output);
+        legacyPitchShift(&legacy, 1.5f, FRAME_SIZE, input, legacyOut);
+        for (i = 0; i < FRAME_SIZE; i++) {
+            peak = fmax(peak, fabs(legacyOut[i]));
+            maxDiff = fmax(maxDiff, fabs(output[i] - legacyOut[i]));
+        }
+        if (frame == 10 || frame == 30 || frame == 100 || frame == COMPARE_FRAMES) {
+            printf("  after %3ld frames, max diff %6.1f dB relative to peak\n", frame,
+                   maxDiff == 0. ? -INFINITY : 20 * log10(maxDiff / peak));
+        }
+    }
+    Java_com_github_piasy_audioprocessor_NativePitchShifter_release(NULL, NULL,
+            (jlong) (intptr_t) current);
+}
+
+static void run(const char *name, void (*stage)(void)) {
+    long count = 0;
+    double start;
+    // warm up
+    for (start = now(); now() - start < SECONDS / 4;) {
+        stage();
+    }
+    for (start = now(); now() - start < SECONDS; count++) {
+        stage();
+    }
+    printf("%-34s %10.0f frames/s\n", name, count / (now() - start));
+}
+
+int main() {
+    long i;
+    for (i = 0; i < FRAME_SIZE; i++) {
+        input[i] = (float) (8000. * sin(i * 0.031) + 3000. * sin(i * 0.17));
+    }
+    fftTablesInit(&tables, FRAME_SIZE);
+    shifter = (void *) (intptr_t) Java_com_github_piasy_audioprocessor_NativePitchShifter_create(
+            NULL, NULL);
+
+    run("fft stage, legacy complex FFT", legacyStage);
+    run("fft stage, cached real FFT", realStage);
+    // it does OSAMP FFT stages per frame
+    run("smbPitchShift", pitchShift);
+
+    Java_com_github_piasy_audioprocessor_NativePitchShifter_release(NULL, NULL,
+            (jlong) (intptr_t) shifter);
+
+    compareWithLegacy();
+    return 0;
+}
@@ -94,6 +94,16 @@ public final class AudioRecorder {
         return 0;
     }
 
+    /**
+     * @return recorded milliseconds, or -1 if not recording.
+     */
+    public long getPositionMillis() {
+        if (mState == STATE_RECORDING) {
+            return System.currentTimeMillis() - mSampleStart;
+        }
+        return -1;
+    }
+
     /**
      * Directly start record, including prepare and start.
      *
@@ -0,0 +1,198 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+/**
+ * Snapshot of real-time health metrics of {@link StreamAudioRecorder} and
+ * {@link StreamAudioPlayer}, emitted by {@link RxAudioStats}. All values are accumulated since
+ * the stats are reset.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class AudioStats {
+    long mTimestampNanos;
+    Histogram mReadBlocked;
+    Histogram mCallback;
+    long mDroppedFrames;
+    long mStartLatencyNanos;
+    Histogram mWrite;
+    int mUnderrunCount;
+    int mQueueDepth;
+    long mLateFrames;
+    long mQueueDroppedFrames;
+
+    AudioStats() {
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the snapshot is taken.
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * @return time blocked in {@code AudioRecord.read}.
+     */
+    public Histogram getReadBlocked() {
+        return mReadBlocked;
+    }
+
+    /**
+     * @return time spent in record callbacks, e.g.
+     * {@link StreamAudioRecorder.AudioDataCallback#onAudioData(byte[], int)}.
+     */
+    public Histogram getCallback() {
+        return mCallback;
+    }
+
+    /**
+     * @return frames dropped because consumers are too slow: by the frame ring of the recorder,
+     * by {@link RxStreamAudioRecorder} with a drop backpressure, and by {@link PcmFrameHub},
+     * where a frame dropped for several consumers counts once for each.
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * @return see {@link StreamAudioRecorder#getStartLatencyNanos()}.
+     */
+    public long getStartLatencyNanos() {
+        return mStartLatencyNanos;
+    }
+
+    /**
+     * @return time blocked in {@code AudioTrack.write} of {@link StreamAudioPlayer}.
+     */
+    public Histogram getWrite() {
+        return mWrite;
+    }
+
+    /**
+     * @return {@code AudioTrack.getUnderrunCount()} of {@link StreamAudioPlayer}, -1 if not
+     * available, which requires API 24.
+     */
+    public int getUnderrunCount() {
+        return mUnderrunCount;
+    }
+
+    /**
+     * @return frames count in the async play queue of {@link StreamAudioPlayer}.
+     */
+    public int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    /**
+     * @return frames waited longer than the threshold in the async play queue.
+     */
+    public long getLateFrames() {
+        return mLateFrames;
+    }
+
+    /**
+     * @return frames dropped because the async play queue is full.
+     */
+    public long getQueueDroppedFrames() {
+        return mQueueDroppedFrames;
+    }
+
+    @Override
+    public String toString() {
+        return "AudioStats{"
+               + "readBlocked=" + mReadBlocked
+               + ", callback=" + mCallback
+               + ", droppedFrames=" + mDroppedFrames
+               + ", startLatencyNanos=" + mStartLatencyNanos
+               + ", write=" + mWrite
+               + ", underrunCount=" + mUnderrunCount
+               + ", queueDepth=" + mQueueDepth
+               + ", lateFrames=" + mLateFrames
+               + ", queueDroppedFrames=" + mQueueDroppedFrames
+               + '}';
+    }
+
+    /**
+     * Latency distribution with power of 2 microseconds buckets.
+     */
+    public static final class Histogram {
+        private final long mCount;
+        private final long mTotalNanos;
+        private final long mMaxNanos;
+        private final long[] mBuckets;
+
+        Histogram(long count, long totalNanos, long maxNanos, long[] buckets) {
+            mCount = count;
+            mTotalNanos = totalNanos;
+            mMaxNanos = maxNanos;
+            mBuckets = buckets;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        public long getMeanNanos() {
+            return mCount == 0 ? 0 : mTotalNanos / mCount;
+        }
+
+        /**
+         * @param percentile 0~100.
+         * @return upper bound of the bucket containing the percentile, capped by max value.
+         */
+        public long getPercentileNanos(double percentile) {
+            long total = 0;
+            for (long bucket : mBuckets) {
+                total += bucket;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * percentile / 100);
+            long accumulated = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                accumulated += mBuckets[i];
+                if (accumulated >= target) {
+                    return Math.min((1L << i) * 1000, mMaxNanos);
+                }
+            }
+            return mMaxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + mCount
+                   + ", meanUs=" + getMeanNanos() / 1000
+                   + ", p99Us=" + getPercentileNanos(99) / 1000
+                   + ", maxUs=" + mMaxNanos / 1000
+                   + '}';
+        }
+    }
+}
@@ -0,0 +1,647 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP proxy which caches {@link PlayConfig#url(String)} sources on disk while they are
+ * played, so replays don't download again and start instantly. Set it by
+ * {@link RxAudioPlayer#setHttpCacheProxy(HttpCacheProxy)}.
+ *
+ * Each url is downloaded once by one thread into a {@code .part} file, resumed with a Range
+ * request after failures, while player requests are served from the file as it grows. A
+ * request starting far beyond the downloaded part, i.e. a seek, is relayed to the origin
+ * without caching. Complete files are evicted in LRU order when the total size exceeds
+ * {@code maxCacheBytes}.
+ *
+ * Proxy urls carry a random token of this instance, requests without it are rejected, so other
+ * apps on the device can't use the proxy to fetch arbitrary urls.
+ *
+ * The player talks to the proxy in cleartext HTTP, apps targeting API 28 or higher should
+ * permit cleartext traffic to 127.0.0.1 in their network security config.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class HttpCacheProxy {
+    private static final String TAG = "HttpCacheProxy";
+    private static final String PART_SUFFIX = ".part";
+    private static final int BUFFER_SIZE = 8192;
+    private static final int TIMEOUT_MILLIS = 10_000;
+    // requests start beyond downloaded + this are relayed to origin
+    private static final long RELAY_THRESHOLD = 512 * 1024;
+
+    private final File mCacheDir;
+    private final long mMaxCacheBytes;
+    // path prefix of proxy urls
+    private final String mTokenPath;
+    // guarded by itself
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    private ServerSocket mServerSocket;
+    private ExecutorService mExecutorService;
+
+    public HttpCacheProxy(@NonNull File cacheDir, long maxCacheBytes) {
+        mCacheDir = cacheDir;
+        mMaxCacheBytes = maxCacheBytes;
+        byte[] token = new byte[16];
+        new SecureRandom().nextBytes(token);
+        mTokenPath = "/" + hex(token) + "/";
+    }
+
+    /**
+     * Listen on a random port of loopback interface.
+     */
+    public synchronized void start() throws IOException {
+        if (mServerSocket != null) {
+            return;
+        }
+        if (!mCacheDir.exists() && !mCacheDir.mkdirs()) {
+            throw new IOException("mkdirs fail: " + mCacheDir);
+        }
+        mServerSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        mExecutorService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+        ServerSocket serverSocket = mServerSocket;
+        mExecutorService.execute(() -> accept(serverSocket));
+    }
+
+    public synchronized void stop() {
+        if (mServerSocket == null) {
+            return;
+        }
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.w(TAG, "close fail: " + e.getMessage());
+        }
+        mServerSocket = null;
+        // running downloads and responses end with their sockets or origins
+        mExecutorService.shutdown();
+        mExecutorService = null;
+    }
+
+    /**
+     * @return the url to give to the player, or {@code url} itself if the proxy is not started.
+     */
+    @NonNull
+    public synchronized String getProxyUrl(@NonNull String url) {
+        if (mServerSocket == null) {
+            return url;
+        }
+        try {
+            return "http://127.0.0.1:" + mServerSocket.getLocalPort() + mTokenPath
+                   + URLEncoder.encode(url, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is required on every platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean isCached(@NonNull String url) {
+        return new File(mCacheDir, fileName(url)).exists();
+    }
+
+    public long getCacheSizeBytes() {
+        long size = 0;
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    private void accept(ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                ExecutorService executorService = mExecutorService;
+                if (executorService == null) {
+                    socket.close();
+                    break;
+                }
+                executorService.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    Log.w(TAG, "accept fail: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            String requestLine = readLine(input);
+            String[] parts = requestLine == null ? null : requestLine.split(" ");
+            if (parts == null || parts.length < 2) {
+                writeStatus(socket.getOutputStream(), "400 Bad Request");
+                return;
+            }
+            if (!parts[1].startsWith(mTokenPath)) {
+                writeStatus(socket.getOutputStream(), "403 Forbidden");
+                return;
+            }
+            // start and end, end is -1 if open
+            long[] range = null;
+            boolean badRange = false;
+            String line;
+            while ((line = readLine(input)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Range")) {
+                    range = parseRange(line.substring(colon + 1).trim());
+                    badRange = range == null;
+                }
+            }
+            if (badRange) {
+                writeStatus(socket.getOutputStream(), "416 Range Not Satisfiable");
+                return;
+            }
+            String url;
+            try {
+                url = URLDecoder.decode(parts[1].substring(mTokenPath.length()), "UTF-8");
+            } catch (IllegalArgumentException e) {
+                writeStatus(socket.getOutputStream(), "400 Bad Request");
+                return;
+            }
+            boolean ranged = range != null;
+            long start = ranged ? range[0] : 0;
+            long end = ranged ? range[1] : -1;
+            boolean head = "HEAD".equals(parts[0]);
+            Entry entry = obtainEntry(url);
+            try {
+                entry.serve(socket.getOutputStream(), ranged, start, end, head);
+            } finally {
+                releaseEntry(entry);
+            }
+        } catch (IOException e) {
+            // players close connections when they seek, so it's normal
+            Log.d(TAG, "serve fail: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // never let a request kill the process through the pool thread
+            Log.w(TAG, "serve fail: " + e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.w(TAG, "close socket fail: " + e.getMessage());
+            }
+        }
+    }
+
+    private Entry obtainEntry(String url) {
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(url);
+            if (entry == null) {
+                entry = new Entry(url);
+                mEntries.put(url, entry);
+            }
+            entry.mUsers++;
+            return entry;
+        }
+    }
+
+    private void releaseEntry(Entry entry) {
+        synchronized (mEntries) {
+            entry.mUsers--;
+            if (entry.mUsers == 0) {
+                mEntries.remove(entry.mUrl);
+            }
+        }
+    }
+
+    /**
+     * Delete least recently used complete files until total size is within budget.
+     */
+    private void evict() {
+        File[] files = mCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= mMaxCacheBytes) {
+            return;
+        }
+        long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(modified[a], modified[b]));
+        synchronized (mEntries) {
+            for (int i : order) {
+                if (total <= mMaxCacheBytes) {
+                    break;
+                }
+                File file = files[i];
+                if (file.getName().endsWith(PART_SUFFIX) || inUse(file.getName())) {
+                    continue;
+                }
+                long length = file.length();
+                if (file.delete()) {
+                    total -= length;
+                }
+            }
+        }
+    }
+
+    private boolean inUse(String fileName) {
+        for (Entry entry : mEntries.values()) {
+            if (entry.mFile.getName().equals(fileName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int c;
+        while ((c = input.read()) != -1) {
+            if (c == '\n') {
+                int length = builder.length();
+                if (length > 0 && builder.charAt(length - 1) == '\r') {
+                    builder.setLength(length - 1);
+                }
+                return builder.toString();
+            }
+            builder.append((char) c);
+        }
+        return builder.length() == 0 ? null : builder.toString();
+    }
+
+    /**
+     * Parse a single {@code bytes=start-end} or {@code bytes=start-} range, suffix and multiple
+     * ranges are not supported.
+     *
+     * @return start and end, end is -1 if open, null if not supported or malformed.
+     */
+    private static long[] parseRange(String value) {
+        if (!value.startsWith("bytes=")) {
+            return null;
+        }
+        String spec = value.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash <= 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        try {
+            long start = Long.parseLong(spec.substring(0, dash).trim());
+            String last = spec.substring(dash + 1).trim();
+            long end = last.isEmpty() ? -1 : Long.parseLong(last);
+            if (start < 0 || end != -1 && end < start) {
+                return null;
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeStatus(OutputStream output, String status) throws IOException {
+        output.write(("HTTP/1.1 " + status + "\r\n"
+                      + "Content-Length: 0\r\n"
+                      + "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private static String fileName(String url) {
+        try {
+            return hex(MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // both are required on every platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeHeaders(OutputStream output, boolean partial, long start, long end,
+            long total, String contentType) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+        if (contentType != null) {
+            builder.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (total >= 0) {
+            builder.append("Accept-Ranges: bytes\r\n");
+            builder.append("Content-Length: ").append(end - start + 1).append("\r\n");
+            if (partial) {
+                builder.append("Content-Range: bytes ")
+                        .append(start).append('-').append(end).append('/').append(total)
+                        .append("\r\n");
+            }
+        }
+        builder.append("Connection: close\r\n\r\n");
+        output.write(builder.toString().getBytes("US-ASCII"));
+    }
+
+    /**
+     * Download and serve state of one url, all fields are guarded by this, except
+     * {@code mUsers} which is guarded by {@link #mEntries}.
+     */
+    private final class Entry implements Runnable {
+        final String mUrl;
+        final File mFile;
+        final File mPartFile;
+
+        int mUsers;
+        private boolean mDownloading;
+        private boolean mHeadersReady;
+        private long mDownloaded;
+        // -1 if unknown
+        private long mTotal = -1;
+        private String mContentType;
+        private IOException mError;
+
+        Entry(String url) {
+            mUrl = url;
+            mFile = new File(mCacheDir, fileName(url));
+            mPartFile = new File(mCacheDir, mFile.getName() + PART_SUFFIX);
+        }
+
+        void serve(OutputStream output, boolean ranged, long start, long end, boolean head)
+                throws IOException {
+            File file;
+            long total;
+            String contentType;
+            synchronized (this) {
+                if (mFile.exists()) {
+                    mDownloaded = mTotal = mFile.length();
+                    mHeadersReady = true;
+                    mError = null;
+                    if (!mFile.setLastModified(System.currentTimeMillis())) {
+                        Log.w(TAG, "touch fail: " + mFile);
+                    }
+                } else if (!mDownloading) {
+                    ExecutorService executorService = mExecutorService;
+                    if (executorService == null) {
+                        throw new IOException("proxy stopped");
+                    }
+                    mDownloading = true;
+                    mError = null;
+                    mHeadersReady = false;
+                    // the download holds the entry, so there is only one download per url
+                    synchronized (mEntries) {
+                        mUsers++;
+                    }
+                    executorService.execute(this);
+                }
+                while (!mHeadersReady && mError == null) {
+                    await();
+                }
+                if (mError != null) {
+                    throw mError;
+                }
+                total = mTotal;
+                contentType = mContentType;
+                if (total >= 0 && start > mDownloaded + RELAY_THRESHOLD) {
+                    file = null;
+                } else {
+                    file = mFile.exists() ? mFile : mPartFile;
+                }
+            }
+            if (file == null) {
+                relay(output, start, end, head);
+                return;
+            }
+            if (total < 0) {
+                // length unknown, serve the whole stream without range
+                ranged = false;
+                start = 0;
+            } else {
+                if (end < 0 || end >= total) {
+                    end = total - 1;
+                }
+                if (start > end) {
+                    writeStatus(output, "416 Range Not Satisfiable");
+                    return;
+                }
+            }
+            writeHeaders(output, ranged, start, end, total, contentType);
+            if (head) {
+                return;
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                long position = start;
+                while (end < 0 || position <= end) {
+                    long available;
+                    synchronized (this) {
+                        while (position >= mDownloaded && mDownloading && mError == null) {
+                            await();
+                        }
+                        if (position >= mDownloaded) {
+                            if (mError != null) {
+                                throw mError;
+                            }
+                            // unknown length, download finished
+                            break;
+                        }
+                        available = mDownloaded - position;
+                    }
+                    int count = (int) Math.min(buffer.length, available);
+                    if (end >= 0) {
+                        count = (int) Math.min(count, end - position + 1);
+                    }
+                    randomAccessFile.seek(position);
+                    randomAccessFile.readFully(buffer, 0, count);
+                    output.write(buffer, 0, count);
+                    position += count;
+                }
+                output.flush();
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        @Override
+        public void run() {
+            HttpURLConnection connection = null;
+            try {
+                long downloaded = mPartFile.length();
+                connection = (HttpURLConnection) new URL(mUrl).openConnection();
+                connection.setConnectTimeout(TIMEOUT_MILLIS);
+                connection.setReadTimeout(TIMEOUT_MILLIS);
+                if (downloaded > 0) {
+                    connection.setRequestProperty("Range", "bytes=" + downloaded + "-");
+                }
+                int code = connection.getResponseCode();
+                long total;
+                if (code == HttpURLConnection.HTTP_PARTIAL && downloaded > 0) {
+                    total = parseTotal(connection.getHeaderField("Content-Range"));
+                } else if (code == HttpURLConnection.HTTP_OK) {
+                    downloaded = 0;
+                    total = connection.getContentLength();
+                } else {
+                    throw new IOException("Unexpected response: " + code);
+                }
+                InputStream input = connection.getInputStream();
+                FileOutputStream output = new FileOutputStream(mPartFile, downloaded > 0);
+                try {
+                    synchronized (this) {
+                        mDownloaded = downloaded;
+                        mTotal = total;
+                        mContentType = connection.getContentType();
+                        mHeadersReady = true;
+                        notifyAll();
+                    }
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        output.write(buffer, 0, read);
+                        synchronized (this) {
+                            mDownloaded += read;
+                            notifyAll();
+                        }
+                    }
+                } finally {
+                    output.close();
+                    input.close();
+                }
+                synchronized (this) {
+                    if (mTotal >= 0 && mDownloaded != mTotal) {
+                        throw new IOException("Truncated: " + mDownloaded + "/" + mTotal);
+                    }
+                    if (!mPartFile.renameTo(mFile)) {
+                        throw new IOException("rename fail: " + mPartFile);
+                    }
+                    mTotal = mDownloaded;
+                    mDownloading = false;
+                    notifyAll();
+                }
+                evict();
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "download fail: " + e.getMessage());
+                synchronized (this) {
+                    mError = e instanceof IOException ? (IOException) e : new IOException(e);
+                    mDownloading = false;
+                    notifyAll();
+                }
+            } finally {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+                releaseEntry(this);
+            }
+        }
+
+        private void relay(OutputStream output, long start, long end, boolean head)
+                throws IOException {
+            HttpURLConnection connection =
+                    (HttpURLConnection) new URL(mUrl).openConnection();
+            try {
+                connection.setConnectTimeout(TIMEOUT_MILLIS);
+                connection.setReadTimeout(TIMEOUT_MILLIS);
+                connection.setRequestProperty("Range",
+                        "bytes=" + start + "-" + (end >= 0 ? String.valueOf(end) : ""));
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("Range not supported by origin");
+                }
+                long total = parseTotal(connection.getHeaderField("Content-Range"));
+                long length = connection.getContentLength();
+                writeHeaders(output, true, start, start + length - 1, total,
+                        connection.getContentType());
+                if (head) {
+                    return;
+                }
+                InputStream input = connection.getInputStream();
+                try {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        output.write(buffer, 0, read);
+                    }
+                } finally {
+                    input.close();
+                }
+                output.flush();
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        private void await() throws IOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted");
+            }
+        }
+
+        private long parseTotal(String contentRange) {
+            // bytes start-end/total
+            if (contentRange != null) {
+                int slash = contentRange.lastIndexOf('/');
+                if (slash > 0 && !contentRange.endsWith("*")) {
+                    return Long.parseLong(contentRange.substring(slash + 1).trim());
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+/**
+ * Adaptive jitter buffer for 16 bit PCM packets delivered over network.
+ *
+ * Network thread {@link #put(long, byte[], int, long)} packets with their sequence number and
+ * arrival time, in any order; playout thread {@link #read(byte[])} one frame per packet
+ * duration, e.g. paced by blocking {@link StreamAudioPlayer#play(byte[], int)}, see
+ * {@link JitterBufferPlayout}.
+ *
+ * Arrival jitter is estimated like RFC 3550, the target playout delay follows it within
+ * [min delay, max delay]. When the smoothed buffered delay leaves the target, latency is
+ * adjusted at most one frame per {@link #ADJUST_INTERVAL} frames, by dropping or inserting a
+ * frame with a short cross fade. Lost packets are concealed
+ * by fading repetition of the last frame.
+ *
+ * It has no Android dependency and doesn't read clock itself, so it could be driven by a
+ * simulated packet arrival trace on JVM.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class JitterBuffer {
+    /**
+     * Not enough data buffered yet, silence is output.
+     */
+    public static final int RESULT_BUFFERING = 0;
+    /**
+     * A received packet is output.
+     */
+    public static final int RESULT_PLAYED = 1;
+    /**
+     * Concealment or inserted frame is output.
+     */
+    public static final int RESULT_CONCEALED = 2;
+
+    static final int ADJUST_INTERVAL = 8;
+
+    private static final int JITTER_MULTIPLIER = 3;
+    private static final int MAX_CONCEALED_FRAMES = 5;
+    private static final int FADE_SAMPLES = 64;
+
+    private final int mFrameSize;
+    private final long mFrameNanos;
+    private final long mMinDelayNanos;
+    private final long mMaxDelayNanos;
+
+    private final byte[][] mSlots;
+    private final long[] mSlotSequences;
+    private final int[] mSlotSizes;
+    private final byte[] mLastFrame;
+
+    // arrival jitter, RFC 3550 A.8
+    private boolean mHasArrival;
+    private long mLastArrivalNanos;
+    private long mLastArrivalSequence;
+    private double mJitterNanos;
+
+    private boolean mHasPacket;
+    private boolean mPlaying;
+    // playout started since reset, stays true across rebuffer, so played or concealed sequences
+    // are never accepted again
+    private boolean mStarted;
+    private long mNextSequence;
+    private long mMaxSequence;
+    private int mConcealedInRow;
+    private int mFramesSinceAdjust;
+    // smoothed buffered frames, so latency isn't adjusted back and forth by every burst
+    private double mAverageDepth;
+
+    private long mReceivedCount;
+    private long mLateCount;
+    private long mDuplicateCount;
+    private long mConcealedCount;
+    private long mDroppedCount;
+    private long mInsertedCount;
+
+    /**
+     * @param frameSize bytes count of each packet.
+     * @param frameMillis duration of each packet.
+     * @param capacity max packets count buffered.
+     */
+    public JitterBuffer(int frameSize, int frameMillis, int capacity, int minDelayMillis,
+            int maxDelayMillis) {
+        if (frameSize <= 0 || frameSize % 2 != 0 || frameMillis <= 0 || capacity < 2
+            || minDelayMillis > maxDelayMillis) {
+            throw new IllegalArgumentException("Bad jitter buffer config");
+        }
+        mFrameSize = frameSize;
+        mFrameNanos = frameMillis * 1_000_000L;
+        mMinDelayNanos = minDelayMillis * 1_000_000L;
+        mMaxDelayNanos = Math.min(maxDelayMillis * 1_000_000L, mFrameNanos * (capacity - 1));
+        mSlots = new byte[capacity][frameSize];
+        mSlotSequences = new long[capacity];
+        mSlotSizes = new int[capacity];
+        mLastFrame = new byte[frameSize];
+        reset();
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * Clear packets, estimates and counters, for a new stream.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < mSlotSequences.length; i++) {
+            mSlotSequences[i] = -1;
+        }
+        mHasArrival = false;
+        mJitterNanos = 0;
+        mHasPacket = false;
+        mPlaying = false;
+        mStarted = false;
+        mConcealedInRow = 0;
+        mFramesSinceAdjust = 0;
+        mReceivedCount = 0;
+        mLateCount = 0;
+        mDuplicateCount = 0;
+        mConcealedCount = 0;
+        mDroppedCount = 0;
+        mInsertedCount = 0;
+    }
+
+    /**
+     * @param sequence packet sequence number, increase by one for each packet, non-negative.
+     * @param arrivalNanos arrival time of this packet, e.g. {@link System#nanoTime()}.
+     * @return false if the packet is discarded, because it's too late, duplicated or too large.
+     */
+    public synchronized boolean put(long sequence, byte[] data, int size, long arrivalNanos) {
+        if (size > mFrameSize || sequence < 0) {
+            return false;
+        }
+        updateJitter(sequence, arrivalNanos);
+        if (mStarted && sequence < mNextSequence) {
+            mLateCount++;
+            return false;
+        }
+        if (!mHasPacket) {
+            mHasPacket = true;
+            mNextSequence = sequence;
+            mMaxSequence = sequence;
+        } else if (!mStarted && sequence < mNextSequence) {
+            // reordered before playout starts
+            if (mMaxSequence - sequence >= mSlots.length) {
+                mLateCount++;
+                return false;
+            }
+            mNextSequence = sequence;
+        }
+        if (sequence - mNextSequence >= mSlots.length) {
+            // far ahead, e.g. after a long network stall, skip the gap
+            mNextSequence = sequence - mSlots.length + 1;
+        }
+        int index = slot(sequence);
+        if (mSlotSequences[index] == sequence) {
+            mDuplicateCount++;
+            return false;
+        }
+        System.arraycopy(data, 0, mSlots[index], 0, size);
+        if (size < mFrameSize) {
+            fillSilence(mSlots[index], size);
+        }
+        mSlotSequences[index] = sequence;
+        mSlotSizes[index] = size;
+        if (sequence > mMaxSequence) {
+            mMaxSequence = sequence;
+        }
+        mReceivedCount++;
+        return true;
+    }
+
+    /**
+     * Output one frame of {@link #getFrameSize()} bytes into {@code out}.
+     *
+     * @return {@link #RESULT_BUFFERING}, {@link #RESULT_PLAYED} or {@link #RESULT_CONCEALED}.
+     */
+    public synchronized int read(byte[] out) {
+        int depth = bufferedFrames();
+        int target = targetFrames();
+        if (!mPlaying) {
+            if (!mHasPacket || depth < target) {
+                fillSilence(out, 0);
+                return RESULT_BUFFERING;
+            }
+            mPlaying = true;
+            mStarted = true;
+            mFramesSinceAdjust = 0;
+            mAverageDepth = depth;
+        }
+
+        mAverageDepth += (depth - mAverageDepth) / 16;
+        mFramesSinceAdjust++;
+        boolean canAdjust = mFramesSinceAdjust >= ADJUST_INTERVAL;
+        int next = slot(mNextSequence);
+        boolean hasNext = mSlotSequences[next] == mNextSequence;
+        int afterNext = slot(mNextSequence + 1);
+        boolean hasAfterNext = mSlotSequences[afterNext] == mNextSequence + 1;
+
+        if (canAdjust && mAverageDepth > target + 1 && hasNext && hasAfterNext) {
+            // shrink latency: drop next frame, fade from it into the one after
+            crossFade(mSlots[next], mSlots[afterNext], out);
+            mSlotSequences[next] = -1;
+            mNextSequence++;
+            mDroppedCount++;
+            mFramesSinceAdjust = 0;
+            return consume(afterNext, out, false);
+        }
+        if (canAdjust && mAverageDepth < target - 1 && hasNext) {
+            // grow latency: insert last frame, faded in from the next frame's head
+            crossFade(mSlots[next], mLastFrame, out);
+            System.arraycopy(out, 0, mLastFrame, 0, mFrameSize);
+            mInsertedCount++;
+            mFramesSinceAdjust = 0;
+            return RESULT_CONCEALED;
+        }
+        if (hasNext) {
+            return consume(next, out, true);
+        }
+
+        // next packet is missing
+        if (mConcealedInRow >= MAX_CONCEALED_FRAMES) {
+            // stalled, rebuffer
+            mPlaying = false;
+            mConcealedInRow = 0;
+            fillSilence(out, 0);
+            return RESULT_BUFFERING;
+        }
+        conceal(out);
+        if (depth >= target) {
+            // enough later packets arrived, regard it as lost
+            mNextSequence++;
+        }
+        return RESULT_CONCEALED;
+    }
+
+    public synchronized int getBufferedFrames() {
+        return bufferedFrames();
+    }
+
+    public synchronized long getJitterMillis() {
+        return (long) (mJitterNanos / 1_000_000);
+    }
+
+    public synchronized long getTargetDelayMillis() {
+        return targetDelayNanos() / 1_000_000;
+    }
+
+    public synchronized long getReceivedCount() {
+        return mReceivedCount;
+    }
+
+    /**
+     * @return packets arrived after their playout time.
+     */
+    public synchronized long getLateCount() {
+        return mLateCount;
+    }
+
+    public synchronized long getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    /**
+     * @return frames concealed due to packet loss or late arrival.
+     */
+    public synchronized long getConcealedCount() {
+        return mConcealedCount;
+    }
+
+    /**
+     * @return frames dropped to shrink latency.
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return frames inserted to grow latency.
+     */
+    public synchronized long getInsertedCount() {
+        return mInsertedCount;
+    }
+
+    private int consume(int index, byte[] out, boolean copy) {
+        if (copy) {
+            System.arraycopy(mSlots[index], 0, out, 0, mFrameSize);
+        }
+        System.arraycopy(out, 0, mLastFrame, 0, mFrameSize);
+        mSlotSequences[index] = -1;
+        mNextSequence++;
+        mConcealedInRow = 0;
+        return RESULT_PLAYED;
+    }
+
+    private void conceal(byte[] out) {
+        mConcealedInRow++;
+        mConcealedCount++;
+        // fade out a bit more with each concealed frame
+        int gain = 256 * (MAX_CONCEALED_FRAMES - mConcealedInRow) / MAX_CONCEALED_FRAMES;
+        for (int i = 0; i + 1 < mFrameSize; i += 2) {
+            int sample = (short) ((mLastFrame[i + 1] << 8) | (mLastFrame[i] & 0xFF));
+            sample = sample * gain >> 8;
+            out[i] = (byte) sample;
+            out[i + 1] = (byte) (sample >> 8);
+        }
+        System.arraycopy(out, 0, mLastFrame, 0, mFrameSize);
+    }
+
+    /**
+     * Output {@code to}, with its head faded in from {@code from}.
+     */
+    private void crossFade(byte[] from, byte[] to, byte[] out) {
+        int fadeSamples = Math.min(FADE_SAMPLES, mFrameSize / 2);
+        for (int i = 0; i < fadeSamples; i++) {
+            int from16 = (short) ((from[2 * i + 1] << 8) | (from[2 * i] & 0xFF));
+            int to16 = (short) ((to[2 * i + 1] << 8) | (to[2 * i] & 0xFF));
+            int sample = (from16 * (fadeSamples - i) + to16 * i) / fadeSamples;
+            out[2 * i] = (byte) sample;
+            out[2 * i + 1] = (byte) (sample >> 8);
+        }
+        if (out != to) {
+            System.arraycopy(to, fadeSamples * 2, out, fadeSamples * 2,
+                    mFrameSize - fadeSamples * 2);
+        }
+    }
+
+    private void updateJitter(long sequence, long arrivalNanos) {
+        if (mHasArrival) {
+            long transitDiff = (arrivalNanos - mLastArrivalNanos)
+                               - (sequence - mLastArrivalSequence) * mFrameNanos;
+            mJitterNanos += (Math.abs(transitDiff) - mJitterNanos) / 16;
+        }
+        mHasArrival = true;
+        mLastArrivalNanos = arrivalNanos;
+        mLastArrivalSequence = sequence;
+    }
+
+    private long targetDelayNanos() {
+        long delay = mFrameNanos + (long) (mJitterNanos * JITTER_MULTIPLIER);
+        return Math.max(mMinDelayNanos, Math.min(delay, mMaxDelayNanos));
+    }
+
+    private int targetFrames() {
+        return (int) Math.max(1, (targetDelayNanos() + mFrameNanos - 1) / mFrameNanos);
+    }
+
+    private int bufferedFrames() {
+        if (!mHasPacket || mMaxSequence < mNextSequence) {
+            return 0;
+        }
+        return (int) (mMaxSequence - mNextSequence + 1);
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % mSlots.length);
+    }
+
+    private static void fillSilence(byte[] data, int from) {
+        for (int i = from; i < data.length; i++) {
+            data[i] = 0;
+        }
+    }
+}
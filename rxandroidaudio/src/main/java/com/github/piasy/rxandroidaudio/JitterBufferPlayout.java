@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import android.os.Process;
+import android.util.Log;
+import androidx.annotation.NonNull;
+
+/**
+ * Play a {@link JitterBuffer} through {@link StreamAudioPlayer}, on a dedicated thread paced by
+ * the blocking {@link StreamAudioPlayer#play(byte[], int)}. Silence is played while buffering,
+ * so the track keeps running at real-time rate.
+ *
+ * The player should be initialized with the same format as the packets, and a buffer size
+ * close to the frame size for low latency.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class JitterBufferPlayout implements Runnable {
+    private static final String TAG = "JitterBufferPlayout";
+
+    private final JitterBuffer mJitterBuffer;
+    private final StreamAudioPlayer mPlayer;
+    private final byte[] mFrame;
+
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    public JitterBufferPlayout(@NonNull JitterBuffer jitterBuffer,
+            @NonNull StreamAudioPlayer player) {
+        mJitterBuffer = jitterBuffer;
+        mPlayer = player;
+        mFrame = new byte[jitterBuffer.getFrameSize()];
+    }
+
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(this, TAG);
+        mThread.start();
+    }
+
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            mThread = null;
+            mRunning = false;
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "stop interrupted: " + e.getMessage());
+            }
+        }
+        mJitterBuffer.reset();
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        while (mRunning) {
+            mJitterBuffer.read(mFrame);
+            if (!mPlayer.play(mFrame, mFrame.length)) {
+                Log.w(TAG, "play fail, stop playout");
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,518 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.media.AudioFormat;
+import android.os.Build;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of decoded PCM for compressed audio played repeatedly, e.g. voice messages, so repeat
+ * plays skip container parsing and decoding, and go through {@link StreamAudioPlayer}.
+ *
+ * Clips no larger than {@code memoryClipMaxBytes} are kept in memory, larger ones are written
+ * to {@code diskDir} as WAV and memory mapped when played. Both tiers are LRU with their own
+ * byte budget. Files are keyed by path, modification time and length, so an edited file is
+ * decoded again, resources are keyed by the app's last update time, so an app update does.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class PcmCache {
+    private static final String TAG = "PcmCache";
+    private static final String SUFFIX = ".wav";
+    private static final int CHUNK_SIZE = 4096;
+
+    private final File mDiskDir;
+    private final long mMemoryBudgetBytes;
+    private final long mDiskBudgetBytes;
+    private final long mMemoryClipMaxBytes;
+
+    // access ordered, guarded by this
+    private final LinkedHashMap<String, PcmDecoder.DecodedPcm> mMemory =
+            new LinkedHashMap<>(16, 0.75F, true);
+    private final LinkedHashMap<String, Long> mDisk = new LinkedHashMap<>(16, 0.75F, true);
+    private long mMemoryBytes;
+    private long mDiskBytes;
+    private boolean mDiskLoaded;
+
+    private final AtomicLong mMemoryHits = new AtomicLong();
+    private final AtomicLong mDiskHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    public PcmCache(@NonNull File diskDir, long memoryBudgetBytes, long diskBudgetBytes,
+            long memoryClipMaxBytes) {
+        mDiskDir = diskDir;
+        mMemoryBudgetBytes = memoryBudgetBytes;
+        mDiskBudgetBytes = diskBudgetBytes;
+        mMemoryClipMaxBytes = Math.min(memoryClipMaxBytes, memoryBudgetBytes);
+    }
+
+    /**
+     * Play the config through {@code player}, decode and cache it on miss. Volumes of the config
+     * are not applied. should be scheduled in IO thread.
+     *
+     * @return emit true when data starts to play, and complete when all data is played,
+     * including the tail held by the time stretcher of {@code player}. If looping, it never
+     * completes, dispose it to stop.
+     */
+    public Observable<Boolean> play(@NonNull final PlayConfig config,
+            @NonNull final StreamAudioPlayer player) {
+        if (!config.isArgumentValid()) {
+            return Observable.error(new IllegalArgumentException(""));
+        }
+        return Observable.create(emitter -> {
+            String key = key(config);
+            PcmDecoder.DecodedPcm clip = getFromMemory(key);
+            File file = clip == null ? getFromDisk(key) : null;
+            if (clip == null && file == null) {
+                clip = decode(config, key);
+                if (clip == null) {
+                    file = new File(mDiskDir, fileName(key));
+                }
+            }
+            if (clip != null) {
+                playMemory(clip, config.mLooping, player, emitter);
+            } else {
+                playFile(file, config.mLooping, player, emitter);
+            }
+            if (!emitter.isDisposed() && !player.drain()) {
+                throw new IOException("drain fail");
+            }
+            emitter.onComplete();
+        });
+    }
+
+    @WorkerThread
+    private static void playMemory(PcmDecoder.DecodedPcm clip, boolean looping,
+            StreamAudioPlayer player, ObservableEmitter<Boolean> emitter) throws IOException {
+        player.init(clip.mSampleRate, channelConfig(clip.mChannelCount),
+                AudioFormat.ENCODING_PCM_16BIT, CHUNK_SIZE);
+        emitter.onNext(true);
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.nativeOrder());
+        do {
+            int position = 0;
+            while (position < clip.mSamples.length && !emitter.isDisposed()) {
+                int count = Math.min(CHUNK_SIZE / 2, clip.mSamples.length - position);
+                chunk.clear();
+                chunk.asShortBuffer().put(clip.mSamples, position, count);
+                if (!player.play(chunk, count * 2)) {
+                    throw new IOException("play fail");
+                }
+                position += count;
+            }
+        } while (looping && !emitter.isDisposed());
+    }
+
+    @WorkerThread
+    private static void playFile(File file, boolean looping, StreamAudioPlayer player,
+            ObservableEmitter<Boolean> emitter) throws IOException {
+        PcmFileSource source = PcmFileSource.wav(file);
+        try {
+            player.init(source.getSampleRate(), channelConfig(source.getChannelCount()),
+                    AudioFormat.ENCODING_PCM_16BIT, CHUNK_SIZE);
+            emitter.onNext(true);
+            do {
+                source.seekToFrame(0);
+                int ret;
+                while (!emitter.isDisposed() && (ret = source.playTo(player, CHUNK_SIZE)) != 0) {
+                    if (ret < 0) {
+                        throw new IOException("play fail");
+                    }
+                }
+            } while (looping && !emitter.isDisposed());
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Decode and cache the config ahead of time.
+     */
+    @WorkerThread
+    public void preload(@NonNull PlayConfig config) throws IOException {
+        String key = key(config);
+        if (getFromMemory(key) == null && getFromDisk(key) == null) {
+            decode(config, key);
+        }
+    }
+
+    public long getMemoryHitCount() {
+        return mMemoryHits.get();
+    }
+
+    public long getDiskHitCount() {
+        return mDiskHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    public synchronized long getMemorySizeBytes() {
+        return mMemoryBytes;
+    }
+
+    public synchronized long getDiskSizeBytes() {
+        loadDiskIndex();
+        return mDiskBytes;
+    }
+
+    public synchronized void clear() {
+        mMemory.clear();
+        mMemoryBytes = 0;
+        loadDiskIndex();
+        for (String name : mDisk.keySet()) {
+            if (!new File(mDiskDir, name).delete()) {
+                Log.w(TAG, "delete fail: " + name);
+            }
+        }
+        mDisk.clear();
+        mDiskBytes = 0;
+    }
+
+    private synchronized PcmDecoder.DecodedPcm getFromMemory(String key) {
+        PcmDecoder.DecodedPcm clip = mMemory.get(key);
+        if (clip != null) {
+            mMemoryHits.incrementAndGet();
+        }
+        return clip;
+    }
+
+    private synchronized File getFromDisk(String key) {
+        loadDiskIndex();
+        String name = fileName(key);
+        if (!mDisk.containsKey(name)) {
+            return null;
+        }
+        File file = new File(mDiskDir, name);
+        if (!file.exists()) {
+            mDiskBytes -= mDisk.remove(name);
+            return null;
+        }
+        // keep LRU order across process restarts
+        if (!file.setLastModified(System.currentTimeMillis())) {
+            Log.w(TAG, "touch fail: " + name);
+        }
+        mDiskHits.incrementAndGet();
+        return file;
+    }
+
+    /**
+     * Decode and cache in memory or on disk according to its size.
+     *
+     * @return the clip if it's cached in memory, or null if it's on disk.
+     */
+    @WorkerThread
+    private PcmDecoder.DecodedPcm decode(PlayConfig config, String key) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            throw new IOException("decode requires API 16");
+        }
+        mMisses.incrementAndGet();
+        long maxBytes = Math.max(mMemoryClipMaxBytes, mDiskBudgetBytes - WavHeader.SIZE);
+        String name = fileName(key);
+        ClipWriter writer = new ClipWriter(name);
+        try {
+            PcmDecoder.decode(config, maxBytes / 2, writer);
+            PcmDecoder.DecodedPcm clip = writer.finish(new File(mDiskDir, name));
+            if (clip != null) {
+                putInMemory(key, clip);
+            } else {
+                putOnDisk(name);
+            }
+            return clip;
+        } finally {
+            writer.abort();
+        }
+    }
+
+    private synchronized void putInMemory(String key, PcmDecoder.DecodedPcm clip) {
+        PcmDecoder.DecodedPcm old = mMemory.put(key, clip);
+        if (old != null) {
+            mMemoryBytes -= old.getSizeInBytes();
+        }
+        mMemoryBytes += clip.getSizeInBytes();
+        Iterator<Map.Entry<String, PcmDecoder.DecodedPcm>> iterator =
+                mMemory.entrySet().iterator();
+        while (mMemoryBytes > mMemoryBudgetBytes && iterator.hasNext()) {
+            Map.Entry<String, PcmDecoder.DecodedPcm> eldest = iterator.next();
+            if (eldest.getValue() != clip) {
+                mMemoryBytes -= eldest.getValue().getSizeInBytes();
+                iterator.remove();
+            }
+        }
+    }
+
+    private synchronized void putOnDisk(String name) {
+        loadDiskIndex();
+        long length = new File(mDiskDir, name).length();
+        Long old = mDisk.put(name, length);
+        if (old != null) {
+            mDiskBytes -= old;
+        }
+        mDiskBytes += length;
+        Iterator<Map.Entry<String, Long>> iterator = mDisk.entrySet().iterator();
+        while (mDiskBytes > mDiskBudgetBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (!eldest.getKey().equals(name)) {
+                if (!new File(mDiskDir, eldest.getKey()).delete()) {
+                    Log.w(TAG, "evict fail: " + eldest.getKey());
+                }
+                mDiskBytes -= eldest.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Build LRU order of existing files from their modification time, lazily since it does I/O.
+     */
+    private void loadDiskIndex() {
+        if (mDiskLoaded) {
+            return;
+        }
+        mDiskLoaded = true;
+        File[] files = mDiskDir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(modified[a], modified[b]));
+        for (int i : order) {
+            long length = files[i].length();
+            mDisk.put(files[i].getName(), length);
+            mDiskBytes += length;
+        }
+    }
+
+    private static String key(PlayConfig config) {
+        if (config.mType == PlayConfig.TYPE_FILE) {
+            return config.cacheKey() + "@" + config.mAudioFile.lastModified() + "/"
+                   + config.mAudioFile.length();
+        }
+        if (config.mType == PlayConfig.TYPE_RES) {
+            // resource ids and contents may change with an app update
+            return config.cacheKey() + "@" + lastUpdateTime(config.mContext);
+        }
+        return config.cacheKey();
+    }
+
+    private static long lastUpdateTime(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            // our own package always exists
+            Log.w(TAG, "get package info fail: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // both are required on every platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int channelConfig(int channelCount) {
+        return channelCount == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+    }
+
+    /**
+     * Keeps decoded samples in memory until they exceed the memory clip limit, then streams
+     * them into a WAV temp file, so large clips are never held in heap. The temp file is unique,
+     * concurrent decodes of the same clip don't write into each other.
+     */
+    private final class ClipWriter implements PcmDecoder.Output {
+        private final String mName;
+        private final int mMemoryMaxSamples;
+        private short[] mSamples;
+        private int mSize;
+        private int mSampleRate;
+        private int mChannelCount;
+
+        private FileOutputStream mOutputStream;
+        private FileChannel mChannel;
+        private ByteBuffer mBuffer;
+        private long mDataSize;
+        private File mTemp;
+
+        ClipWriter(String name) {
+            mName = name;
+            mMemoryMaxSamples = (int) Math.min(Integer.MAX_VALUE, mMemoryClipMaxBytes / 2);
+            mSamples = new short[Math.min(mMemoryMaxSamples, 8192)];
+        }
+
+        @Override
+        public void onFormat(int sampleRate, int channelCount) {
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+        }
+
+        @Override
+        public void onSamples(ShortBuffer samples) throws IOException {
+            int count = samples.remaining();
+            if (mChannel == null && mSize + count <= mMemoryMaxSamples) {
+                if (mSize + count > mSamples.length) {
+                    short[] grown = new short[Math.min(mMemoryMaxSamples,
+                            Math.max(mSamples.length * 2, mSize + count))];
+                    System.arraycopy(mSamples, 0, grown, 0, mSize);
+                    mSamples = grown;
+                }
+                samples.get(mSamples, mSize, count);
+                mSize += count;
+                return;
+            }
+            if (mChannel == null) {
+                openFile();
+                write(ShortBuffer.wrap(mSamples, 0, mSize));
+                mSamples = null;
+            }
+            write(samples);
+        }
+
+        /**
+         * @return the clip if it fits in memory, otherwise null and the WAV is moved to
+         * {@code file}.
+         */
+        PcmDecoder.DecodedPcm finish(File file) throws IOException {
+            if (mChannel == null) {
+                short[] samples = mSamples;
+                if (mSize < samples.length) {
+                    samples = new short[mSize];
+                    System.arraycopy(mSamples, 0, samples, 0, mSize);
+                }
+                return new PcmDecoder.DecodedPcm(samples, mSampleRate, mChannelCount);
+            }
+            flush();
+            // format may change after the first samples, so header is written last
+            mBuffer.clear();
+            WavHeader.write(mBuffer, WavHeader.FORMAT_PCM, mSampleRate, mChannelCount, 16,
+                    mDataSize);
+            mBuffer.flip();
+            long position = 0;
+            while (mBuffer.hasRemaining()) {
+                position += mChannel.write(mBuffer, position);
+            }
+            mOutputStream.close();
+            mOutputStream = null;
+            mChannel = null;
+            if (!mTemp.renameTo(file)) {
+                throw new IOException("rename fail: " + mTemp);
+            }
+            mTemp = null;
+            return null;
+        }
+
+        /**
+         * Drop the temp file if {@link #finish(File)} didn't move it.
+         */
+        void abort() {
+            if (mTemp == null) {
+                return;
+            }
+            if (mOutputStream != null) {
+                try {
+                    mOutputStream.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "close temp fail: " + e.getMessage());
+                }
+                mOutputStream = null;
+                mChannel = null;
+            }
+            if (!mTemp.delete()) {
+                Log.w(TAG, "delete temp fail: " + mTemp);
+            }
+        }
+
+        private void openFile() throws IOException {
+            if (!mDiskDir.exists() && !mDiskDir.mkdirs()) {
+                throw new IOException("mkdirs fail: " + mDiskDir);
+            }
+            mTemp = File.createTempFile(mName, ".tmp", mDiskDir);
+            mOutputStream = new FileOutputStream(mTemp);
+            mChannel = mOutputStream.getChannel();
+            mChannel.position(WavHeader.SIZE);
+            mBuffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private void write(ShortBuffer samples) throws IOException {
+            while (samples.hasRemaining()) {
+                int count = Math.min(mBuffer.remaining() / 2, samples.remaining());
+                ShortBuffer part = samples.duplicate();
+                part.limit(part.position() + count);
+                mBuffer.asShortBuffer().put(part);
+                mBuffer.position(mBuffer.position() + count * 2);
+                samples.position(samples.position() + count);
+                mDataSize += count * 2L;
+                if (mBuffer.remaining() < 2) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            mBuffer.flip();
+            while (mBuffer.hasRemaining()) {
+                mChannel.write(mBuffer);
+            }
+            mBuffer.clear();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import android.annotation.TargetApi;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Decode a whole {@link PlayConfig} source into 16 bit PCM with {@link MediaCodec}, for short
+ * clips which are decoded once and played many times.
+ */
+
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+final class PcmDecoder {
+    private static final long TIMEOUT_US = 10_000;
+
+    private PcmDecoder() {
+        // no instance
+    }
+
+    /**
+     * @param maxSamples decode fails if the clip has more samples than this.
+     */
+    @WorkerThread
+    @NonNull
+    static DecodedPcm decode(@NonNull PlayConfig config, int maxSamples) throws IOException {
+        SampleArray samples = new SampleArray(maxSamples);
+        decode(config, maxSamples, samples);
+        return samples.toDecodedPcm();
+    }
+
+    /**
+     * Decode into {@code output} chunk by chunk, so the whole clip needn't be in memory.
+     *
+     * @param maxSamples decode fails if the clip has more samples than this.
+     */
+    @WorkerThread
+    static void decode(@NonNull PlayConfig config, long maxSamples, @NonNull Output output)
+            throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            setDataSource(extractor, config);
+            int track = selectAudioTrack(extractor);
+            if (track < 0) {
+                throw new IOException("No audio track in " + config.cacheKey());
+            }
+            extractor.selectTrack(track);
+            MediaFormat format = extractor.getTrackFormat(track);
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+            output.onFormat(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                    format.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+
+            long size = 0;
+            ByteBuffer[] inputBuffers = codec.getInputBuffers();
+            ByteBuffer[] outputBuffers = codec.getOutputBuffers();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            while (true) {
+                if (!inputDone) {
+                    int index = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (index >= 0) {
+                        int read = extractor.readSampleData(inputBuffers[index], 0);
+                        if (read < 0) {
+                            codec.queueInputBuffer(index, 0, 0, 0,
+                                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(index, 0, read, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    outputBuffers = codec.getOutputBuffers();
+                } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    output.onFormat(outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                            outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+                } else if (index >= 0) {
+                    ByteBuffer pcm = outputBuffers[index].duplicate();
+                    pcm.order(ByteOrder.nativeOrder());
+                    pcm.limit(info.offset + info.size);
+                    pcm.position(info.offset);
+                    ShortBuffer shorts = pcm.asShortBuffer();
+                    int count = shorts.remaining();
+                    if (size + count > maxSamples) {
+                        throw new IOException("Clip too long: " + config.cacheKey());
+                    }
+                    output.onSamples(shorts);
+                    size += count;
+                    codec.releaseOutputBuffer(index, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        break;
+                    }
+                }
+            }
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Decode fail: " + e.getMessage(), e);
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    // not started
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private static void setDataSource(MediaExtractor extractor, PlayConfig config)
+            throws IOException {
+        switch (config.mType) {
+            case PlayConfig.TYPE_RES:
+                AssetFileDescriptor fd = config.mContext.getResources()
+                        .openRawResourceFd(config.mAudioResource);
+                try {
+                    extractor.setDataSource(fd.getFileDescriptor(), fd.getStartOffset(),
+                            fd.getLength());
+                } finally {
+                    fd.close();
+                }
+                break;
+            case PlayConfig.TYPE_FILE:
+                extractor.setDataSource(config.mAudioFile.getAbsolutePath());
+                break;
+            case PlayConfig.TYPE_URI:
+                extractor.setDataSource(config.mContext, config.mUri, null);
+                break;
+            case PlayConfig.TYPE_URL:
+                extractor.setDataSource(config.mUrl);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown type: " + config.mType);
+        }
+    }
+
+    private static int selectAudioTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Receives decoded interleaved samples, in native order.
+     */
+    interface Output {
+        /**
+         * Called before any samples, and again if decoder changes output format.
+         */
+        void onFormat(int sampleRate, int channelCount) throws IOException;
+
+        /**
+         * Consume all remaining samples, the buffer is only valid during this call.
+         */
+        void onSamples(ShortBuffer samples) throws IOException;
+    }
+
+    private static final class SampleArray implements Output {
+        private final int mMaxSamples;
+        private short[] mSamples;
+        private int mSize;
+        private int mSampleRate;
+        private int mChannelCount;
+
+        SampleArray(int maxSamples) {
+            mMaxSamples = maxSamples;
+            mSamples = new short[Math.min(maxSamples, 8192)];
+        }
+
+        @Override
+        public void onFormat(int sampleRate, int channelCount) {
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+        }
+
+        @Override
+        public void onSamples(ShortBuffer samples) {
+            int count = samples.remaining();
+            if (mSize + count > mSamples.length) {
+                short[] grown = new short[Math.min(mMaxSamples,
+                        Math.max(mSamples.length * 2, mSize + count))];
+                System.arraycopy(mSamples, 0, grown, 0, mSize);
+                mSamples = grown;
+            }
+            samples.get(mSamples, mSize, count);
+            mSize += count;
+        }
+
+        DecodedPcm toDecodedPcm() {
+            short[] samples = mSamples;
+            if (mSize < samples.length) {
+                samples = new short[mSize];
+                System.arraycopy(mSamples, 0, samples, 0, mSize);
+            }
+            return new DecodedPcm(samples, mSampleRate, mChannelCount);
+        }
+    }
+
+    static final class DecodedPcm {
+        // interleaved
+        final short[] mSamples;
+        final int mSampleRate;
+        final int mChannelCount;
+
+        DecodedPcm(short[] samples, int sampleRate, int channelCount) {
+            mSamples = samples;
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+        }
+
+        int getFrameCount() {
+            return mSamples.length / mChannelCount;
+        }
+
+        long getSizeInBytes() {
+            return mSamples.length * 2L;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import android.media.AudioFormat;
+import android.os.Process;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write recorded data into a WAV or raw PCM file on a dedicated I/O thread.
+ *
+ * The record thread only copies data into a pooled frame and enqueues it, the I/O thread
+ * coalesces frames into large {@link FileChannel} writes. The WAV header is patched at
+ * {@link #stop()}, and optionally at intervals so the file stays playable if the app is killed.
+ * When the queue is full, new data is dropped and counted rather than blocking the record
+ * thread.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class PcmFileSink
+        implements StreamAudioRecorder.AudioDataCallback, PcmFrameHub.Consumer {
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+    private static final String TAG = "PcmFileSink";
+
+    // signal the I/O thread to finish
+    private static final PcmFrame END_OF_STREAM = new PcmFrame(0);
+
+    private final File mFile;
+    private final boolean mWavHeader;
+    private final int mFormatTag;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mBitsPerSample;
+    private final long mHeaderPatchIntervalMillis;
+
+    private final PcmFramePool mPool;
+    private final ArrayBlockingQueue<PcmFrame> mQueue;
+    private final ByteBuffer mBatchBuffer;
+    private final ByteBuffer mHeaderBuffer;
+
+    private final AtomicLong mBytesWritten;
+    private final AtomicLong mWriteNanos;
+    private final AtomicLong mDropped;
+    private volatile int mMaxQueueDepth;
+
+    private ExecutorService mExecutorService;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private volatile boolean mStarted;
+    private volatile boolean mWriting;
+    private long mSequence;
+
+    private PcmFileSink(Builder builder) {
+        mFile = builder.mFile;
+        mWavHeader = builder.mWavHeader;
+        mFormatTag = builder.mFormatTag;
+        mSampleRate = builder.mSampleRate;
+        mChannelCount = builder.mChannelCount;
+        mBitsPerSample = builder.mBitsPerSample;
+        mHeaderPatchIntervalMillis = builder.mHeaderPatchIntervalMillis;
+
+        mPool = new PcmFramePool(builder.mFrameSize, builder.mQueueCapacity);
+        mQueue = new ArrayBlockingQueue<>(builder.mQueueCapacity + 1);
+        mBatchBuffer = ByteBuffer.allocateDirect(Math.max(builder.mBatchSize, builder.mFrameSize));
+        mHeaderBuffer = ByteBuffer.allocateDirect(WavHeader.size(mFormatTag));
+
+        mBytesWritten = new AtomicLong();
+        mWriteNanos = new AtomicLong();
+        mDropped = new AtomicLong();
+    }
+
+    /**
+     * WAV of integer PCM, use {@link Builder#audioFormat(int)} for float data.
+     */
+    public static Builder wav(@NonNull File file, int sampleRate, int channelCount,
+            int bitsPerSample) {
+        Builder builder = new Builder();
+        builder.mFile = file;
+        builder.mWavHeader = true;
+        builder.mSampleRate = sampleRate;
+        builder.mChannelCount = channelCount;
+        builder.mBitsPerSample = bitsPerSample;
+        return builder;
+    }
+
+    public static Builder pcm(@NonNull File file) {
+        Builder builder = new Builder();
+        builder.mFile = file;
+        builder.mWavHeader = false;
+        return builder;
+    }
+
+    /**
+     * Open the file, write a placeholder WAV header if needed, and start the I/O thread.
+     */
+    public synchronized void start() throws IOException {
+        if (mStarted) {
+            return;
+        }
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mRandomAccessFile.setLength(0);
+        mChannel = mRandomAccessFile.getChannel();
+        if (mWavHeader) {
+            writeHeader(0);
+            mChannel.position(WavHeader.size(mFormatTag));
+        }
+        mBytesWritten.set(0);
+        mWriteNanos.set(0);
+        mDropped.set(0);
+        mMaxQueueDepth = 0;
+        mWriting = true;
+        mExecutorService = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, TAG));
+        mExecutorService.execute(this::writeLoop);
+        mStarted = true;
+    }
+
+    /**
+     * Flush queued data, patch the WAV header and close the file, block until finished.
+     */
+    public synchronized void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        try {
+            // the I/O thread may quit early due to write error
+            while (mWriting && !mQueue.offer(END_OF_STREAM, 10, TimeUnit.MILLISECONDS)) {
+                Log.d(TAG, "stop: waiting for queue space");
+            }
+            mExecutorService.shutdown();
+            mExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "stop interrupted: " + e.getMessage());
+            mExecutorService.shutdownNow();
+        }
+        mExecutorService = null;
+    }
+
+    @Override
+    public void onAudioData(byte[] data, int size) {
+        if (!mStarted) {
+            return;
+        }
+        if (size > mPool.getFrameSize()) {
+            Log.w(TAG, "onAudioData: frame size too small, drop data of size " + size);
+            mDropped.incrementAndGet();
+            return;
+        }
+        PcmFrame frame = mPool.obtain();
+        System.arraycopy(data, 0, frame.mData, 0, size);
+        frame.mSize = size;
+        frame.mSequence = mSequence++;
+        frame.mTimestampNanos = System.nanoTime();
+        enqueue(frame);
+    }
+
+    @Override
+    public void onFrame(PcmFrame frame) {
+        if (mStarted) {
+            enqueue(frame.retain());
+        }
+    }
+
+    @Override
+    public void onFrameDropped(long droppedCount) {
+        // dropped before reaching this sink, nothing to write
+    }
+
+    @Override
+    public void onError() {
+        Log.w(TAG, "record error, stop writing " + mFile.getAbsolutePath());
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    /**
+     * @return frames dropped because the queue is full.
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * @return bytes written per second of time spent in file writes, 0 if nothing written.
+     */
+    public long getWriteThroughput() {
+        long nanos = mWriteNanos.get();
+        return nanos == 0 ? 0 : mBytesWritten.get() * 1_000_000_000L / nanos;
+    }
+
+    private void enqueue(PcmFrame frame) {
+        if (!mQueue.offer(frame)) {
+            frame.release();
+            mDropped.incrementAndGet();
+            return;
+        }
+        int depth = mQueue.size();
+        if (depth > mMaxQueueDepth) {
+            mMaxQueueDepth = depth;
+        }
+    }
+
+    private void writeLoop() {
+        long patchInterval = mHeaderPatchIntervalMillis > 0 && mWavHeader
+                             ? mHeaderPatchIntervalMillis
+                             : Long.MAX_VALUE;
+        long lastPatchTime = System.currentTimeMillis();
+        try {
+            while (true) {
+                PcmFrame frame = mQueue.poll(patchInterval, TimeUnit.MILLISECONDS);
+                if (frame == END_OF_STREAM) {
+                    break;
+                }
+                if (frame != null) {
+                    append(frame);
+                }
+                if (System.currentTimeMillis() - lastPatchTime >= patchInterval) {
+                    flush();
+                    writeHeader(mBytesWritten.get());
+                    lastPatchTime = System.currentTimeMillis();
+                }
+            }
+            flush();
+            if (mWavHeader) {
+                writeHeader(mBytesWritten.get());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "write fail: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Log.w(TAG, "write interrupted: " + e.getMessage());
+        } finally {
+            mWriting = false;
+            PcmFrame frame;
+            while ((frame = mQueue.poll()) != null) {
+                frame.release();
+            }
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                Log.w(TAG, "close fail: " + e.getMessage());
+            }
+        }
+    }
+
+    private void append(PcmFrame frame) throws IOException {
+        try {
+            if (mBatchBuffer.remaining() < frame.mSize) {
+                flush();
+            }
+            mBatchBuffer.put(frame.mData, 0, frame.mSize);
+        } finally {
+            frame.release();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (mBatchBuffer.position() == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        mBatchBuffer.flip();
+        int size = mBatchBuffer.remaining();
+        while (mBatchBuffer.hasRemaining()) {
+            mChannel.write(mBatchBuffer);
+        }
+        mBatchBuffer.clear();
+        mWriteNanos.addAndGet(System.nanoTime() - start);
+        mBytesWritten.addAndGet(size);
+    }
+
+    private void writeHeader(long dataSize) throws IOException {
+        mHeaderBuffer.clear();
+        WavHeader.write(mHeaderBuffer, mFormatTag, mSampleRate, mChannelCount, mBitsPerSample,
+                dataSize);
+        mHeaderBuffer.flip();
+        long position = 0;
+        while (mHeaderBuffer.hasRemaining()) {
+            position += mChannel.write(mHeaderBuffer, position);
+        }
+    }
+
+    public static class Builder {
+
+        File mFile;
+
+        boolean mWavHeader;
+
+        int mFormatTag = WavHeader.FORMAT_PCM;
+
+        int mSampleRate = StreamAudioRecorder.DEFAULT_SAMPLE_RATE;
+
+        int mChannelCount = 1;
+
+        int mBitsPerSample = 16;
+
+        int mFrameSize = StreamAudioRecorder.DEFAULT_BUFFER_SIZE;
+
+        int mQueueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+        int mBatchSize = DEFAULT_BATCH_SIZE;
+
+        long mHeaderPatchIntervalMillis;
+
+        /**
+         * Set WAV format tag and bits per sample from the record encoding, e.g.
+         * {@link AudioFormat#ENCODING_PCM_FLOAT} is written as IEEE float.
+         *
+         * @param audioFormat AudioFormat.ENCODING_PCM_8BIT, AudioFormat.ENCODING_PCM_16BIT or
+         * AudioFormat.ENCODING_PCM_FLOAT.
+         */
+        public Builder audioFormat(int audioFormat) {
+            switch (audioFormat) {
+                case AudioFormat.ENCODING_PCM_8BIT:
+                    mFormatTag = WavHeader.FORMAT_PCM;
+                    mBitsPerSample = 8;
+                    break;
+                case AudioFormat.ENCODING_PCM_16BIT:
+                    mFormatTag = WavHeader.FORMAT_PCM;
+                    mBitsPerSample = 16;
+                    break;
+                case AudioFormat.ENCODING_PCM_FLOAT:
+                    mFormatTag = WavHeader.FORMAT_IEEE_FLOAT;
+                    mBitsPerSample = 32;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported audio format: " + audioFormat);
+            }
+            return this;
+        }
+
+        /**
+         * @param frameSize max bytes count of each {@code onAudioData} call.
+         */
+        public Builder frameSize(int frameSize) {
+            mFrameSize = frameSize;
+            return this;
+        }
+
+        /**
+         * @param queueCapacity frames count could be queued before dropping new data.
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            mQueueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * @param batchSize bytes count of each file write.
+         */
+        public Builder batchSize(int batchSize) {
+            mBatchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Flush data and patch the WAV header at interval, disabled by default.
+         */
+        public Builder headerPatchInterval(long intervalMillis) {
+            mHeaderPatchIntervalMillis = intervalMillis;
+            return this;
+        }
+
+        public PcmFileSink build() {
+            return new PcmFileSink(this);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory mapped WAV or raw PCM file, which feeds {@link StreamAudioPlayer} without heap copy,
+ * and seeks by time in O(1) with sample accuracy.
+ *
+ * <em>NOTE: files larger than 2GB are not supported, and it's not thread safe.</em>
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class PcmFileSource implements Closeable {
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final RandomAccessFile mRandomAccessFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mDataOffset;
+    private final int mDataSize;
+
+    private int mFormatTag = WavHeader.FORMAT_PCM;
+    private int mSampleRate;
+    private int mChannelCount;
+    private int mBitsPerSample;
+    private int mFrameSize;
+    // relative to mDataOffset
+    private int mPosition;
+
+    private PcmFileSource(File file, boolean wav, int sampleRate, int channelCount,
+            int bitsPerSample) throws IOException {
+        mRandomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = mRandomAccessFile.getChannel();
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + length);
+            }
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (wav) {
+                long dataChunk = parseWavHeader();
+                mDataOffset = (int) (dataChunk >>> 32);
+                mDataSize = (int) dataChunk;
+            } else {
+                mSampleRate = sampleRate;
+                mChannelCount = channelCount;
+                mBitsPerSample = bitsPerSample;
+                mDataOffset = 0;
+                mDataSize = (int) length;
+            }
+            if (mSampleRate <= 0 || mChannelCount <= 0 || mBitsPerSample <= 0
+                || mBitsPerSample % 8 != 0) {
+                throw new IOException("Bad format: " + mSampleRate + ", " + mChannelCount + ", "
+                                      + mBitsPerSample);
+            }
+            mFrameSize = mChannelCount * mBitsPerSample / 8;
+        } catch (IOException | RuntimeException e) {
+            mRandomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a WAV file, format is read from its header.
+     */
+    @WorkerThread
+    public static PcmFileSource wav(@NonNull File file) throws IOException {
+        return new PcmFileSource(file, true, 0, 0, 0);
+    }
+
+    /**
+     * Open a headerless PCM file, e.g. written by {@link StreamAudioRecorder}.
+     */
+    @WorkerThread
+    public static PcmFileSource pcm(@NonNull File file, int sampleRate, int channelCount,
+            int bitsPerSample) throws IOException {
+        return new PcmFileSource(file, false, sampleRate, channelCount, bitsPerSample);
+    }
+
+    /**
+     * @return {@link WavHeader#FORMAT_PCM} or {@link WavHeader#FORMAT_IEEE_FLOAT}.
+     */
+    public int getFormatTag() {
+        return mFormatTag;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    /**
+     * @return total sample frames, one sample frame contains one sample for each channel.
+     */
+    public long getFrameCount() {
+        return mDataSize / mFrameSize;
+    }
+
+    public long getDurationMillis() {
+        return getFrameCount() * 1000 / mSampleRate;
+    }
+
+    public long getPositionFrames() {
+        return mPosition / mFrameSize;
+    }
+
+    public long getPositionMillis() {
+        return getPositionFrames() * 1000 / mSampleRate;
+    }
+
+    public boolean isEndOfStream() {
+        return mPosition >= mDataSize;
+    }
+
+    public void seekToFrame(long frame) {
+        long clamped = Math.max(0, Math.min(frame, getFrameCount()));
+        mPosition = (int) (clamped * mFrameSize);
+    }
+
+    public void seekToMillis(long millis) {
+        seekToFrame(millis * mSampleRate / 1000);
+    }
+
+    /**
+     * Expose at most {@code maxBytes} of data from current position, whole sample frames only,
+     * and advance the position.
+     *
+     * @return the mapped buffer, with position and limit set to the exposed range, or null at
+     * end of stream. The buffer is shared, it's valid until the next call.
+     */
+    public ByteBuffer read(int maxBytes) {
+        int size = Math.min(maxBytes, mDataSize - mPosition) / mFrameSize * mFrameSize;
+        if (size <= 0) {
+            return null;
+        }
+        int start = mDataOffset + mPosition;
+        mBuffer.limit(start + size);
+        mBuffer.position(start);
+        mPosition += size;
+        return mBuffer;
+    }
+
+    /**
+     * Play at most {@code maxBytes} of data from current position.
+     *
+     * @return bytes played, 0 at end of stream, or -1 if play fails.
+     */
+    @WorkerThread
+    public int playTo(@NonNull StreamAudioPlayer player, int maxBytes) {
+        ByteBuffer data = read(maxBytes);
+        if (data == null) {
+            return 0;
+        }
+        int size = data.remaining();
+        return player.play(data, size) ? size : -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRandomAccessFile.close();
+    }
+
+    /**
+     * @return offset of data chunk in high 32 bits, size in low 32 bits.
+     */
+    private long parseWavHeader() throws IOException {
+        int length = mBuffer.limit();
+        if (length < 12 || mBuffer.getInt(0) != fourCc("RIFF")
+            || mBuffer.getInt(8) != fourCc("WAVE")) {
+            throw new IOException("Not a WAV file");
+        }
+        boolean formatFound = false;
+        int offset = 12;
+        while (offset + 8 <= length) {
+            int id = mBuffer.getInt(offset);
+            long chunkSize = mBuffer.getInt(offset + 4) & 0xFFFFFFFFL;
+            int body = offset + 8;
+            if (id == fourCc("fmt ")) {
+                if (chunkSize < 16 || body + 16 > length) {
+                    throw new IOException("Bad fmt chunk");
+                }
+                mFormatTag = mBuffer.getShort(body) & 0xFFFF;
+                mChannelCount = mBuffer.getShort(body + 2) & 0xFFFF;
+                mSampleRate = mBuffer.getInt(body + 4);
+                mBitsPerSample = mBuffer.getShort(body + 14) & 0xFFFF;
+                if (mFormatTag == WAVE_FORMAT_EXTENSIBLE && chunkSize >= 40) {
+                    // first two bytes of sub format GUID is the format tag
+                    mFormatTag = mBuffer.getShort(body + 24) & 0xFFFF;
+                }
+                if (mFormatTag != WavHeader.FORMAT_PCM
+                    && mFormatTag != WavHeader.FORMAT_IEEE_FLOAT) {
+                    throw new IOException("Unsupported format: " + mFormatTag);
+                }
+                formatFound = true;
+            } else if (id == fourCc("data")) {
+                if (!formatFound) {
+                    throw new IOException("data chunk before fmt chunk");
+                }
+                // streaming writers may leave the size unpatched, 0 or past the end, so use
+                // the rest of the file then
+                long size = chunkSize == 0 || chunkSize > length - body
+                            ? length - body : chunkSize;
+                return ((long) body << 32) | size;
+            }
+            // other chunks, e.g. fact of float data or LIST, are skipped, chunks are word aligned
+            offset = (int) Math.min(length, body + chunkSize + (chunkSize & 1));
+        }
+        throw new IOException("data chunk not found");
+    }
+
+    private static int fourCc(String id) {
+        return (id.charAt(0)) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+    }
+}
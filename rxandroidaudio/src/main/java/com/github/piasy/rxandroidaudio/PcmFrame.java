@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A pre-allocated chunk of PCM data, owned by a {@link PcmFrameRing} or a frame pool.
+ *
+ * <em>NOTE: the backing array is reused after the frame is released, consumers must not keep
+ * reference to it after {@link PcmFrameRing#release(PcmFrame)} or {@link #release()}. Pooled
+ * frames are reference counted, a frame shared by {@link PcmFrameHub} is read by multiple
+ * consumers at the same time, so its data must be treated as read-only.</em>
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class PcmFrame {
+    private static final AtomicIntegerFieldUpdater<PcmFrame> REF_COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(PcmFrame.class, "mRefCount");
+
+    final byte[] mData;
+    private final PcmFramePool mPool;
+    int mSize;
+    long mSequence;
+    long mTimestampNanos;
+    private volatile int mRefCount;
+
+    PcmFrame(int capacity) {
+        this(capacity, null);
+    }
+
+    PcmFrame(int capacity, PcmFramePool pool) {
+        mData = new byte[capacity];
+        mPool = pool;
+    }
+
+    /**
+     * Add a reference to a pooled frame, which should be paired with a {@link #release()}.
+     */
+    public PcmFrame retain() {
+        if (mPool != null && REF_COUNT.incrementAndGet(this) <= 1) {
+            throw new IllegalStateException("Retain a released frame");
+        }
+        return this;
+    }
+
+    /**
+     * Drop a reference to a pooled frame, e.g. frames emitted by {@link RxStreamAudioRecorder},
+     * the frame goes back to its pool when no reference left. Frames of {@link PcmFrameRing}
+     * must be released by {@link PcmFrameRing#release(PcmFrame)}, for which this method is
+     * no-op. Not releasing a pooled frame is safe, but it will be garbage collected instead of
+     * reused.
+     */
+    public void release() {
+        if (mPool == null) {
+            return;
+        }
+        int refCount = REF_COUNT.decrementAndGet(this);
+        if (refCount == 0) {
+            mPool.recycle(this);
+        } else if (refCount < 0) {
+            throw new IllegalStateException("Release a released frame");
+        }
+    }
+
+    /**
+     * @return false for frames of {@link PcmFrameRing}, which are overwritten by the ring
+     * regardless of references.
+     */
+    boolean isPooled() {
+        return mPool != null;
+    }
+
+    void resetRefCount() {
+        REF_COUNT.set(this, 1);
+    }
+
+    /**
+     * The backing array itself, not a copy, for zero-copy reads. <em>Never write it:</em> a
+     * pooled frame may be shared by other consumers at the same time, use
+     * {@link #getReadOnlyData()} to enforce that, at the cost of a small allocation.
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * @return a read-only view of the valid bytes, positioned at 0 with limit
+     * {@link #getSize()}, it's only valid until the frame is released.
+     */
+    public ByteBuffer getReadOnlyData() {
+        return ByteBuffer.wrap(mData, 0, mSize).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return valid bytes count in {@link #getData()}.
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    public int getCapacity() {
+        return mData.length;
+    }
+
+    /**
+     * @return read sequence number of the recorder, gap between two consecutive frames means
+     * frames dropped.
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the data is read.
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import android.os.Process;
+import android.util.Log;
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Broadcast recorded data to multiple consumers, pass it to
+ * {@link StreamAudioRecorder#start(int, int, int, int, StreamAudioRecorder.AudioDataCallback)}.
+ *
+ * Each recorded buffer is copied once into a pooled, reference counted {@link PcmFrame}, which
+ * is shared by all consumers. Every consumer has its own bounded queue, overflow policy and
+ * delivery thread, so a slow consumer only drops its own frames, never blocks the record thread
+ * or other consumers.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class PcmFrameHub implements StreamAudioRecorder.AudioDataCallback {
+    /**
+     * When the consumer's queue is full, drop its oldest queued frame.
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+    /**
+     * When the consumer's queue is full, drop the new frame.
+     */
+    public static final int OVERFLOW_DROP_NEWEST = 2;
+
+    private static final String TAG = "PcmFrameHub";
+    private static final ConsumerSlot[] EMPTY = new ConsumerSlot[0];
+
+    private final PcmFramePool mPool;
+    private volatile ConsumerSlot[] mSlots = EMPTY;
+    private long mSequence;
+
+    /**
+     * @param frameSize should not be smaller than the record buffer size.
+     * @param poolSize frames kept for reuse, usually the sum of consumers' capacity.
+     */
+    public PcmFrameHub(int frameSize, int poolSize) {
+        mPool = new PcmFramePool(frameSize, poolSize);
+    }
+
+    /**
+     * @param capacity frames count could be queued for this consumer.
+     */
+    public synchronized void addConsumer(@NonNull Consumer consumer, int capacity,
+            @Overflow int overflow) {
+        for (ConsumerSlot slot : mSlots) {
+            if (slot.mConsumer == consumer) {
+                return;
+            }
+        }
+        ConsumerSlot[] slots = new ConsumerSlot[mSlots.length + 1];
+        System.arraycopy(mSlots, 0, slots, 0, mSlots.length);
+        slots[mSlots.length] = new ConsumerSlot(consumer, capacity, overflow);
+        mSlots = slots;
+    }
+
+    /**
+     * Remove the consumer, its queued frames are released without delivery.
+     */
+    public synchronized void removeConsumer(@NonNull Consumer consumer) {
+        int index = -1;
+        for (int i = 0; i < mSlots.length; i++) {
+            if (mSlots[i].mConsumer == consumer) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return;
+        }
+        ConsumerSlot removed = mSlots[index];
+        ConsumerSlot[] slots = new ConsumerSlot[mSlots.length - 1];
+        System.arraycopy(mSlots, 0, slots, 0, index);
+        System.arraycopy(mSlots, index + 1, slots, index, mSlots.length - index - 1);
+        mSlots = slots;
+        removed.shutdown();
+    }
+
+    /**
+     * @return dropped frames count of the consumer, or -1 if it's not added.
+     */
+    public long getDroppedCount(@NonNull Consumer consumer) {
+        for (ConsumerSlot slot : mSlots) {
+            if (slot.mConsumer == consumer) {
+                return slot.mDropped.get();
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void onAudioData(byte[] data, int size) {
+        ConsumerSlot[] slots = mSlots;
+        if (slots.length == 0) {
+            return;
+        }
+        if (size > mPool.getFrameSize()) {
+            Log.w(TAG, "onAudioData: frame size too small, drop data of size " + size);
+            return;
+        }
+        PcmFrame frame = mPool.obtain();
+        System.arraycopy(data, 0, frame.mData, 0, size);
+        frame.mSize = size;
+        frame.mSequence = mSequence++;
+        frame.mTimestampNanos = System.nanoTime();
+        for (ConsumerSlot slot : slots) {
+            slot.offer(frame);
+        }
+        // the reference held by the hub
+        frame.release();
+    }
+
+    @Override
+    public void onError() {
+        for (ConsumerSlot slot : mSlots) {
+            slot.mConsumer.onError();
+        }
+    }
+
+    @IntDef(value = { OVERFLOW_DROP_OLDEST, OVERFLOW_DROP_NEWEST })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Overflow {
+    }
+
+    /**
+     * {@link #onFrame(PcmFrame)} and {@link #onFrameDropped(long)} are called on the consumer's
+     * own thread, {@link #onError()} is called on the record thread. Exceptions thrown from the
+     * former two are logged, and delivery goes on with the next frame.
+     */
+    public interface Consumer {
+        /**
+         * The frame is released after this call returns, {@link PcmFrame#retain()} it to keep
+         * it longer. The frame is shared with other consumers, don't write its data.
+         */
+        @WorkerThread
+        void onFrame(PcmFrame frame);
+
+        /**
+         * Called before the next delivered frame if any frame dropped since last delivery.
+         *
+         * @param droppedCount total dropped frames count of this consumer.
+         */
+        @WorkerThread
+        void onFrameDropped(long droppedCount);
+
+        void onError();
+    }
+
+    private static final class ConsumerSlot implements Runnable {
+        final Consumer mConsumer;
+        final AtomicLong mDropped;
+        final ExecutorService mExecutorService;
+
+        private final ArrayBlockingQueue<PcmFrame> mQueue;
+        private final int mOverflow;
+        private volatile boolean mRunning = true;
+        // only touched on consumer thread
+        private long mReportedDropped;
+
+        ConsumerSlot(Consumer consumer, int capacity, @Overflow int overflow) {
+            mConsumer = consumer;
+            mOverflow = overflow;
+            mQueue = new ArrayBlockingQueue<>(capacity);
+            mDropped = new AtomicLong();
+            mExecutorService = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+                runnable.run();
+            }, TAG));
+            mExecutorService.execute(this);
+        }
+
+        /**
+         * Called with a snapshot of slots, so it may race with {@link #shutdown()}.
+         */
+        void offer(PcmFrame frame) {
+            if (!mRunning) {
+                return;
+            }
+            frame.retain();
+            if (mOverflow == OVERFLOW_DROP_OLDEST) {
+                while (!mQueue.offer(frame)) {
+                    PcmFrame oldest = mQueue.poll();
+                    if (oldest != null) {
+                        oldest.release();
+                        onDropped();
+                    }
+                }
+            } else if (!mQueue.offer(frame)) {
+                frame.release();
+                onDropped();
+            }
+            if (!mRunning) {
+                // shut down meanwhile, the consumer thread may have drained the queue already
+                releaseQueued();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (mRunning) {
+                PcmFrame frame;
+                try {
+                    frame = mQueue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                try {
+                    long dropped = mDropped.get();
+                    if (dropped != mReportedDropped) {
+                        mReportedDropped = dropped;
+                        mConsumer.onFrameDropped(dropped);
+                    }
+                    mConsumer.onFrame(frame);
+                } catch (RuntimeException e) {
+                    // a bad frame shouldn't silently end the delivery thread
+                    Log.w(TAG, "consumer fail: " + e.getMessage());
+                } finally {
+                    frame.release();
+                }
+            }
+            releaseQueued();
+        }
+
+        private void onDropped() {
+            mDropped.incrementAndGet();
+            StreamAudioRecorder.getInstance().onFramesDropped(1);
+        }
+
+        private void releaseQueued() {
+            PcmFrame frame;
+            while ((frame = mQueue.poll()) != null) {
+                frame.release();
+            }
+        }
+
+        void shutdown() {
+            mRunning = false;
+            mExecutorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Thread safe pool of {@link PcmFrame}s with the same capacity, it allocates new frame when
+ * empty, and keeps at most {@code maxPooled} recycled frames. Obtained frame holds one
+ * reference.
+ */
+
+final class PcmFramePool {
+    private final ArrayBlockingQueue<PcmFrame> mFrames;
+    private final int mFrameSize;
+
+    PcmFramePool(int frameSize, int maxPooled) {
+        mFrameSize = frameSize;
+        mFrames = new ArrayBlockingQueue<>(maxPooled);
+        for (int i = 0; i < maxPooled; i++) {
+            mFrames.offer(new PcmFrame(frameSize, this));
+        }
+    }
+
+    int getFrameSize() {
+        return mFrameSize;
+    }
+
+    PcmFrame obtain() {
+        PcmFrame frame = mFrames.poll();
+        if (frame == null) {
+            frame = new PcmFrame(mFrameSize, this);
+        }
+        frame.resetRefCount();
+        return frame;
+    }
+
+    void recycle(PcmFrame frame) {
+        frame.mSize = 0;
+        mFrames.offer(frame);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue of {@link PcmFrame}s, each slot carries
+ * a sequence number telling whether it's ready for offer or poll. Never allocates after
+ * construction.
+ */
+
+final class PcmFrameQueue {
+    private final AtomicReferenceArray<PcmFrame> mSlots;
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+    private final AtomicLong mHead;
+    private final AtomicLong mTail;
+
+    /**
+     * @param capacity will be rounded up to power of 2.
+     */
+    PcmFrameQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 1));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mSlots = new AtomicReferenceArray<>(size);
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+        mMask = size - 1;
+        mHead = new AtomicLong();
+        mTail = new AtomicLong();
+    }
+
+    int capacity() {
+        return mMask + 1;
+    }
+
+    int size() {
+        long size = mTail.get() - mHead.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    /**
+     * @return false if the queue is full.
+     */
+    boolean offer(PcmFrame frame) {
+        long position = mTail.get();
+        for (; ; ) {
+            int index = (int) (position & mMask);
+            long diff = mSequences.get(index) - position;
+            if (diff == 0) {
+                if (mTail.compareAndSet(position, position + 1)) {
+                    mSlots.lazySet(index, frame);
+                    mSequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+            position = mTail.get();
+        }
+    }
+
+    /**
+     * @return null if the queue is empty.
+     */
+    PcmFrame poll() {
+        long position = mHead.get();
+        for (; ; ) {
+            int index = (int) (position & mMask);
+            long diff = mSequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (mHead.compareAndSet(position, position + 1)) {
+                    PcmFrame frame = mSlots.get(index);
+                    mSlots.lazySet(index, null);
+                    mSequences.lazySet(index, position + mMask + 1);
+                    return frame;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+            position = mHead.get();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import androidx.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer single-consumer ring of pre-allocated {@link PcmFrame}s.
+ *
+ * Producer side: {@link #acquire()}, fill the frame, then {@link #publish(PcmFrame)}.
+ * Consumer side: {@link #poll()}, use the frame, then {@link #release(PcmFrame)} in the same
+ * order they are polled. When all frames are held by the consumer, {@link #acquire()} returns
+ * null and the drop counter increases, so capture never allocates nor overwrites unread data.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class PcmFrameRing {
+    private final PcmFrame[] mFrames;
+    private final int mMask;
+    private final int mFrameSize;
+
+    // frames [mReleased, mPublished) are owned by consumer, others are owned by producer
+    private final AtomicLong mPublished;
+    private final AtomicLong mReleased;
+    private final AtomicLong mDropped;
+
+    // only touched by consumer
+    private long mPolled;
+
+    /**
+     * @param capacity frames count, will be rounded up to power of 2.
+     * @param frameSize bytes count of each frame.
+     */
+    public PcmFrameRing(int capacity, int frameSize) {
+        if (capacity <= 0 || frameSize <= 0) {
+            throw new IllegalArgumentException(
+                    "Bad capacity or frame size: " + capacity + ", " + frameSize);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mFrames = new PcmFrame[size];
+        for (int i = 0; i < size; i++) {
+            mFrames[i] = new PcmFrame(frameSize);
+        }
+        mMask = size - 1;
+        mFrameSize = frameSize;
+        mPublished = new AtomicLong();
+        mReleased = new AtomicLong();
+        mDropped = new AtomicLong();
+    }
+
+    public int getCapacity() {
+        return mFrames.length;
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * @return frames published but not released yet.
+     */
+    public int size() {
+        return (int) (mPublished.get() - mReleased.get());
+    }
+
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * Producer only, acquire again without publish returns the same frame.
+     *
+     * @return a free frame to fill, or null if the consumer is too slow, in which case the
+     * caller should drop its data.
+     */
+    @Nullable
+    public PcmFrame acquire() {
+        long published = mPublished.get();
+        if (published - mReleased.get() >= mFrames.length) {
+            mDropped.incrementAndGet();
+            return null;
+        }
+        return mFrames[(int) (published & mMask)];
+    }
+
+    /**
+     * Producer only, make the frame returned by last {@link #acquire()} visible to consumer.
+     */
+    public void publish(PcmFrame frame) {
+        long published = mPublished.get();
+        if (mFrames[(int) (published & mMask)] != frame) {
+            throw new IllegalStateException("Publish a frame not acquired");
+        }
+        mPublished.lazySet(published + 1);
+    }
+
+    /**
+     * Consumer only.
+     *
+     * @return next published frame, or null if there is none.
+     */
+    @Nullable
+    public PcmFrame poll() {
+        if (mPolled == mPublished.get()) {
+            return null;
+        }
+        return mFrames[(int) (mPolled++ & mMask)];
+    }
+
+    /**
+     * Consumer only, give the oldest polled frame back to producer.
+     */
+    public void release(PcmFrame frame) {
+        long released = mReleased.get();
+        if (released == mPolled || mFrames[(int) (released & mMask)] != frame) {
+            throw new IllegalStateException("Frames must be released in polled order");
+        }
+        mReleased.lazySet(released + 1);
+    }
+}
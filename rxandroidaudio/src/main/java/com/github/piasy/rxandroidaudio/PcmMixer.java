@@ -0,0 +1,385 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import android.media.AudioFormat;
+import android.os.Process;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mix any number of PCM streams into one stereo 16 bit {@link StreamAudioPlayer} track, instead
+ * of opening one AudioTrack per stream.
+ *
+ * Each {@link Input} has its own sample rate (linear resampled), channel count, encoding, gain
+ * and pan, and a lock-free single-producer single-consumer ring, so producers never block. One
+ * render thread with {@link Process#THREAD_PRIORITY_URGENT_AUDIO} sums inputs, soft clips the
+ * sum, and writes it to the track, its pace is set by the blocking write. Nothing is allocated
+ * after {@link #start()} except in {@link #addInput} and {@link #removeInput}.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class PcmMixer implements Runnable {
+    private static final String TAG = "PcmMixer";
+    private static final int OUT_CHANNELS = 2;
+
+    // output is linear below the knee, and approaches full scale smoothly above it
+    private static final float SOFT_CLIP_KNEE = 0.8F;
+
+    private final StreamAudioPlayer mPlayer;
+    private final int mSampleRate;
+    private final int mFramesPerBuffer;
+    private final float[] mMixBuffer;
+    private final byte[] mOutBuffer;
+    private final AtomicLong mClippedSamples = new AtomicLong();
+
+    // copy on write, read by render thread without lock
+    private volatile Source[] mSources = new Source[0];
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    /**
+     * @param player the player to own, it's initialized by {@link #start()}.
+     * @param sampleRate output sample rate, the device native one avoids another resampling.
+     * @param framesPerBuffer frames count of each render, e.g.
+     * {@link StreamAudioPlayer#getBurstSizeFrames()}.
+     */
+    public PcmMixer(@NonNull StreamAudioPlayer player, int sampleRate, int framesPerBuffer) {
+        mPlayer = player;
+        mSampleRate = sampleRate;
+        mFramesPerBuffer = framesPerBuffer;
+        mMixBuffer = new float[framesPerBuffer * OUT_CHANNELS];
+        mOutBuffer = new byte[framesPerBuffer * OUT_CHANNELS * 2];
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * @return total output samples that exceed the soft clip knee.
+     */
+    public long getClippedSamples() {
+        return mClippedSamples.get();
+    }
+
+    /**
+     * @param sampleRate sample rate of the input data.
+     * @param channelCount 1 or 2.
+     * @param encoding {@link AudioFormat#ENCODING_PCM_16BIT} or
+     * {@link AudioFormat#ENCODING_PCM_FLOAT}.
+     * @param capacityFrames frames could be buffered, rounded up to power of 2.
+     */
+    public synchronized Input addInput(int sampleRate, int channelCount, int encoding,
+            int capacityFrames) {
+        if (channelCount != 1 && channelCount != 2) {
+            throw new IllegalArgumentException("Unsupported channel count: " + channelCount);
+        }
+        if (encoding != AudioFormat.ENCODING_PCM_16BIT
+            && encoding != AudioFormat.ENCODING_PCM_FLOAT) {
+            throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        }
+        Input input = new Input(sampleRate, channelCount, encoding, capacityFrames);
+        addSource(input);
+        return input;
+    }
+
+    public void removeInput(@NonNull Input input) {
+        removeSource(input);
+    }
+
+    /**
+     * Mix a custom source, e.g. {@link SoundEffectEngine}.
+     */
+    public synchronized void addSource(@NonNull Source source) {
+        Source[] sources = new Source[mSources.length + 1];
+        System.arraycopy(mSources, 0, sources, 0, mSources.length);
+        sources[mSources.length] = source;
+        mSources = sources;
+    }
+
+    public synchronized void removeSource(@NonNull Source source) {
+        Source[] old = mSources;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] == source) {
+                Source[] sources = new Source[old.length - 1];
+                System.arraycopy(old, 0, sources, 0, i);
+                System.arraycopy(old, i + 1, sources, i, old.length - i - 1);
+                mSources = sources;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Init the player with stereo 16 bit format, and start the render thread.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mPlayer.init(mSampleRate, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT,
+                mOutBuffer.length * 2);
+        mRunning = true;
+        mThread = new Thread(this, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stop the render thread, the player is not released.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            mThread = null;
+            mRunning = false;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "stop interrupted: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        while (mRunning) {
+            Source[] sources = mSources;
+            if (sources.length == 0) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+                continue;
+            }
+            render(sources);
+            if (!mPlayer.play(mOutBuffer, mOutBuffer.length)) {
+                Log.w(TAG, "play fail, stop render");
+                break;
+            }
+        }
+    }
+
+    private void render(Source[] sources) {
+        float[] mix = mMixBuffer;
+        Arrays.fill(mix, 0F);
+        for (Source source : sources) {
+            source.mixInto(mix, mFramesPerBuffer, mSampleRate);
+        }
+        byte[] out = mOutBuffer;
+        int clipped = 0;
+        for (int i = 0; i < mix.length; i++) {
+            float sample = mix[i];
+            float magnitude = Math.abs(sample);
+            if (magnitude > SOFT_CLIP_KNEE) {
+                clipped++;
+                float over = (magnitude - SOFT_CLIP_KNEE) / (1 - SOFT_CLIP_KNEE);
+                magnitude = SOFT_CLIP_KNEE + (1 - SOFT_CLIP_KNEE) * (float) Math.tanh(over);
+                sample = sample > 0 ? magnitude : -magnitude;
+            }
+            int value = (int) (sample * Short.MAX_VALUE);
+            out[i * 2] = (byte) value;
+            out[i * 2 + 1] = (byte) (value >> 8);
+        }
+        if (clipped > 0) {
+            mClippedSamples.addAndGet(clipped);
+        }
+    }
+
+    /**
+     * Something could be mixed, called on the render thread, so it must not block or allocate.
+     */
+    public interface Source {
+        /**
+         * Add {@code frames} frames into {@code mix}, which is interleaved stereo float.
+         */
+        @WorkerThread
+        void mixInto(float[] mix, int frames, int sampleRate);
+    }
+
+    /**
+     * One input stream, write to it from one producer thread.
+     */
+    public static final class Input implements Source {
+        private final int mSampleRate;
+        private final int mChannelCount;
+        private final int mEncoding;
+
+        // interleaved samples, [mRead, mWritten) are readable
+        private final float[] mRing;
+        private final int mMask;
+        private final AtomicLong mWritten = new AtomicLong();
+        private final AtomicLong mRead = new AtomicLong();
+        private final AtomicLong mUnderruns = new AtomicLong();
+
+        private volatile float mGain = 1F;
+        private volatile float mPan;
+
+        // resampler state, only touched by render thread
+        private float mPrevLeft;
+        private float mPrevRight;
+        private float mCurrLeft;
+        private float mCurrRight;
+        private double mPhase = 1;
+
+        Input(int sampleRate, int channelCount, int encoding, int capacityFrames) {
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+            mEncoding = encoding;
+            int samples = Integer.highestOneBit(capacityFrames * channelCount);
+            if (samples < capacityFrames * channelCount) {
+                samples <<= 1;
+            }
+            mRing = new float[samples];
+            mMask = samples - 1;
+        }
+
+        public int getSampleRate() {
+            return mSampleRate;
+        }
+
+        public int getChannelCount() {
+            return mChannelCount;
+        }
+
+        public int getEncoding() {
+            return mEncoding;
+        }
+
+        /**
+         * @param gain linear gain, 1 is unchanged.
+         */
+        public void setGain(float gain) {
+            mGain = gain;
+        }
+
+        /**
+         * @param pan -1 is full left, 0 is center, 1 is full right.
+         */
+        public void setPan(float pan) {
+            mPan = Math.max(-1F, Math.min(1F, pan));
+        }
+
+        /**
+         * @return times the render thread found no data for this input while mixing.
+         */
+        public long getUnderrunCount() {
+            return mUnderruns.get();
+        }
+
+        /**
+         * @return frames buffered and not mixed yet.
+         */
+        public int getBufferedFrames() {
+            return (int) (mWritten.get() - mRead.get()) / mChannelCount;
+        }
+
+        /**
+         * Write 16 bit little endian data without blocking.
+         *
+         * @return bytes accepted, less than {@code size} if the buffer is full.
+         */
+        public int write(byte[] data, int size) {
+            if (mEncoding != AudioFormat.ENCODING_PCM_16BIT) {
+                throw new IllegalStateException("Not a 16 bit input");
+            }
+            long written = mWritten.get();
+            int samples = writableSamples(written, size / 2);
+            for (int i = 0; i < samples; i++) {
+                short value = (short) ((data[i * 2] & 0xFF) | (data[i * 2 + 1] << 8));
+                mRing[(int) ((written + i) & mMask)] = value / 32768F;
+            }
+            mWritten.lazySet(written + samples);
+            return samples * 2;
+        }
+
+        /**
+         * Write float data without blocking.
+         *
+         * @return samples accepted, less than {@code size} if the buffer is full.
+         */
+        public int write(float[] data, int size) {
+            if (mEncoding != AudioFormat.ENCODING_PCM_FLOAT) {
+                throw new IllegalStateException("Not a float input");
+            }
+            long written = mWritten.get();
+            int samples = writableSamples(written, size);
+            for (int i = 0; i < samples; i++) {
+                mRing[(int) ((written + i) & mMask)] = data[i];
+            }
+            mWritten.lazySet(written + samples);
+            return samples;
+        }
+
+        private int writableSamples(long written, int samples) {
+            int free = mRing.length - (int) (written - mRead.get());
+            // whole frames only
+            return Math.min(samples, free) / mChannelCount * mChannelCount;
+        }
+
+        @Override
+        public void mixInto(float[] mix, int frames, int outSampleRate) {
+            long read = mRead.get();
+            long written = mWritten.get();
+            if (read == written) {
+                mUnderruns.incrementAndGet();
+                return;
+            }
+            float gain = mGain;
+            float pan = mPan;
+            // balance law, unity at center so stereo inputs keep their level
+            float leftGain = pan > 0 ? gain * (1 - pan) : gain;
+            float rightGain = pan < 0 ? gain * (1 + pan) : gain;
+            double step = (double) mSampleRate / outSampleRate;
+            float[] ring = mRing;
+            for (int i = 0; i < frames; i++) {
+                while (mPhase >= 1) {
+                    if (read == written) {
+                        mUnderruns.incrementAndGet();
+                        mRead.lazySet(read);
+                        return;
+                    }
+                    mPrevLeft = mCurrLeft;
+                    mPrevRight = mCurrRight;
+                    mCurrLeft = ring[(int) (read++ & mMask)];
+                    mCurrRight = mChannelCount == 2 ? ring[(int) (read++ & mMask)] : mCurrLeft;
+                    mPhase -= 1;
+                }
+                float phase = (float) mPhase;
+                mix[i * 2] += (mPrevLeft + (mCurrLeft - mPrevLeft) * phase) * leftGain;
+                mix[i * 2 + 1] += (mPrevRight + (mCurrRight - mPrevRight) * phase) * rightGain;
+                mPhase += step;
+            }
+            mRead.lazySet(read);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+/**
+ * PCM sample helpers shared by recorders and players, without Android dependency.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class PcmUtils {
+    private PcmUtils() {
+        // no instance
+    }
+
+    /**
+     * Convert {@code size} samples of {@code shorts} into little endian {@code bytes}.
+     */
+    public static byte[] short2byte(short[] shorts, int size, byte[] bytes) {
+        for (int i = 0; i < size; i++) {
+            bytes[i * 2] = (byte) (shorts[i] & 0x00FF);
+            bytes[(i * 2) + 1] = (byte) (shorts[i] >> 8);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return max absolute value of little endian 16 bit samples in {@code data[0, size)}.
+     */
+    public static int calcMaxAmplitude(byte[] data, int size) {
+        int max = 0;
+        for (int i = 0; i + 1 < size; i += 2) {
+            int value = Math.abs((short) ((data[i + 1] << 8) | (data[i] & 0xFF)));
+            if (value > max) {
+                max = value;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return root mean square of little endian 16 bit samples in {@code data[0, size)}.
+     */
+    public static double calcRms(byte[] data, int size) {
+        int samples = size / 2;
+        if (samples == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i + 1 < size; i += 2) {
+            int value = (short) ((data[i + 1] << 8) | (data[i] & 0xFF));
+            sum += value * value;
+        }
+        return Math.sqrt((double) sum / samples);
+    }
+}
@@ -128,6 +128,24 @@ public class PlayConfig {
         }
     }
 
+    /**
+     * Identify the audio source, regardless of the playback options.
+     */
+    String cacheKey() {
+        switch (mType) {
+            case TYPE_FILE:
+                return "file:" + mAudioFile.getAbsolutePath();
+            case TYPE_RES:
+                return "res:" + mAudioResource;
+            case TYPE_URL:
+                return mUrl;
+            case TYPE_URI:
+                return mUri.toString();
+            default:
+                return "";
+        }
+    }
+
     @IntDef(value = { TYPE_FILE, TYPE_RES, TYPE_URL, TYPE_URI })
     @Retention(RetentionPolicy.SOURCE)
     public @interface Type {
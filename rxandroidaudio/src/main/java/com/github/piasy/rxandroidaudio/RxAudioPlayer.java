@@ -25,12 +25,16 @@
 package com.github.piasy.rxandroidaudio;
 
 import android.media.MediaPlayer;
+import android.os.Build;
 import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 import android.util.Log;
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
+import io.reactivex.schedulers.Schedulers;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -43,6 +47,7 @@ public final class RxAudioPlayer {
     private static final String TAG = "RxAudioPlayer";
 
     private MediaPlayer mPlayer;
+    private volatile HttpCacheProxy mHttpCacheProxy;
 
     private RxAudioPlayer() {
         // singleton
@@ -52,9 +57,20 @@ public final class RxAudioPlayer {
         return RxAudioPlayerHolder.INSTANCE;
     }
 
+    /**
+     * Play {@link PlayConfig#url(String)} sources through the proxy, which caches them on disk,
+     * null to disable. The proxy should be started.
+     */
+    public void setHttpCacheProxy(HttpCacheProxy httpCacheProxy) {
+        mHttpCacheProxy = httpCacheProxy;
+    }
+
     private MediaPlayer create(final PlayConfig config) throws IOException {
         stopPlay();
+        return newPlayer(config);
+    }
 
+    private MediaPlayer newPlayer(final PlayConfig config) throws IOException {
         MediaPlayer player;
         switch (config.mType) {
             case PlayConfig.TYPE_URI:
@@ -70,11 +86,15 @@ public final class RxAudioPlayer {
             case PlayConfig.TYPE_RES:
                 Log.d(TAG, "MediaPlayer to start play: " + config.mAudioResource);
                 player = MediaPlayer.create(config.mContext, config.mAudioResource);
+                if (player == null) {
+                    throw new IOException("MediaPlayer create fail: " + config.mAudioResource);
+                }
                 return player;
             case PlayConfig.TYPE_URL:
                 Log.d(TAG, "MediaPlayer to start play: " + config.mUrl);
                 player = new MediaPlayer();
-                player.setDataSource(config.mUrl);
+                HttpCacheProxy proxy = mHttpCacheProxy;
+                player.setDataSource(proxy == null ? config.mUrl : proxy.getProxyUrl(config.mUrl));
                 return player;
             default:
                 // can't happen, just fix checkstyle
@@ -127,6 +147,34 @@ public final class RxAudioPlayer {
         }).doOnError(e -> stopPlay());
     }
 
+    /**
+     * play a list of audio one after another without gap. should be scheduled in IO thread.
+     *
+     * While one item plays, the next one is prepared, and handed over by
+     * {@link MediaPlayer#setNextMediaPlayer(MediaPlayer)} since API 16. A looping item never
+     * finishes, so the following items won't play.
+     *
+     * @return emit index of each item when it starts, and complete when the last one finishes.
+     */
+    public Observable<Integer> play(@NonNull final List<PlayConfig> configs) {
+        if (configs.isEmpty()) {
+            return Observable.error(new IllegalArgumentException("empty playlist"));
+        }
+        for (PlayConfig config : configs) {
+            if (!config.isArgumentValid()) {
+                return Observable.error(new IllegalArgumentException(""));
+            }
+        }
+        final List<PlayConfig> playlist = new ArrayList<>(configs);
+
+        return Observable.<Integer>create(emitter -> {
+            stopPlay();
+            Playlist player = new Playlist(playlist, emitter);
+            emitter.setCancellable(player::cancel);
+            player.start();
+        }).doOnError(e -> stopPlay());
+    }
+
     public void pause() {
         mPlayer.pause();
     }
@@ -191,6 +239,20 @@ public final class RxAudioPlayer {
         return 0;
     }
 
+    /**
+     * @return position in milliseconds of the current player, or -1 if not playing.
+     */
+    public synchronized long getPositionMillis() {
+        if (mPlayer != null) {
+            try {
+                return mPlayer.getCurrentPosition();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "getPositionMillis fail: " + e.getMessage());
+            }
+        }
+        return -1;
+    }
+
     /**
      * allow further customized manipulation.
      */
@@ -241,6 +303,188 @@ public final class RxAudioPlayer {
         });
     }
 
+    private MediaPlayer newPreparedPlayer(PlayConfig config) throws IOException {
+        MediaPlayer player = newPlayer(config);
+        try {
+            player.setVolume(config.mLeftVolume, config.mRightVolume);
+            player.setAudioStreamType(config.mStreamType);
+            player.setLooping(config.mLooping);
+            if (config.needPrepare()) {
+                player.prepare();
+            }
+            return player;
+        } catch (IOException | RuntimeException e) {
+            player.release();
+            throw e;
+        }
+    }
+
+    private static void releaseQuietly(MediaPlayer player) {
+        player.setOnCompletionListener(null);
+        player.setOnErrorListener(null);
+        try {
+            player.release();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "release fail, IllegalStateException: " + e.getMessage());
+        }
+    }
+
+    /**
+     * State of one {@link #play(List)}, the next item is prepared on IO thread, and listeners
+     * are called on the looper thread, so all state is guarded by this.
+     */
+    private final class Playlist {
+        private final List<PlayConfig> mConfigs;
+        private final ObservableEmitter<Integer> mEmitter;
+
+        private MediaPlayer mCurrent;
+        private MediaPlayer mNext;
+        private int mIndex;
+        // current item finished before the next one is prepared
+        private boolean mStalled;
+        private boolean mCancelled;
+
+        Playlist(List<PlayConfig> configs, ObservableEmitter<Integer> emitter) {
+            mConfigs = configs;
+            mEmitter = emitter;
+        }
+
+        @WorkerThread
+        void start() throws IOException {
+            MediaPlayer player = newPreparedPlayer(mConfigs.get(0));
+            synchronized (this) {
+                if (mCancelled) {
+                    player.release();
+                    return;
+                }
+                listen(player);
+                mCurrent = player;
+                mPlayer = player;
+                player.start();
+            }
+            mEmitter.onNext(0);
+            prepareNext();
+        }
+
+        @WorkerThread
+        void prepareNext() {
+            int nextIndex;
+            synchronized (this) {
+                nextIndex = mIndex + 1;
+                if (mCancelled || nextIndex >= mConfigs.size()) {
+                    return;
+                }
+            }
+            MediaPlayer next;
+            try {
+                next = newPreparedPlayer(mConfigs.get(nextIndex));
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "prepare playlist item " + nextIndex + " fail: " + e.getMessage());
+                fail(e);
+                return;
+            }
+            synchronized (this) {
+                if (mCancelled) {
+                    next.release();
+                    return;
+                }
+                listen(next);
+                mNext = next;
+                if (mStalled) {
+                    advance();
+                    mCurrent.start();
+                } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                    try {
+                        mCurrent.setNextMediaPlayer(next);
+                    } catch (IllegalStateException e) {
+                        // current one is stopped by stopPlay
+                        fail(e);
+                    }
+                    return;
+                } else {
+                    // started in onCompletion
+                    return;
+                }
+            }
+            prepareNext();
+        }
+
+        private void listen(MediaPlayer player) {
+            player.setOnCompletionListener(this::onCompletion);
+            player.setOnErrorListener((mp, what, extra) -> {
+                Log.d(TAG, "OnErrorListener::onError" + what + ", " + extra);
+                fail(new Throwable("Player error: " + what + ", " + extra));
+                return true;
+            });
+        }
+
+        private synchronized void onCompletion(MediaPlayer player) {
+            if (mCancelled || player != mCurrent) {
+                return;
+            }
+            if (mNext == null) {
+                if (mIndex == mConfigs.size() - 1) {
+                    releaseQuietly(mCurrent);
+                    mCurrent = null;
+                    clearPlayer(player);
+                    mEmitter.onComplete();
+                } else {
+                    mStalled = true;
+                }
+                return;
+            }
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                mNext.start();
+            }
+            advance();
+            Schedulers.io().scheduleDirect(this::prepareNext);
+        }
+
+        private void advance() {
+            MediaPlayer finished = mCurrent;
+            mCurrent = mNext;
+            mNext = null;
+            mIndex++;
+            mStalled = false;
+            mPlayer = mCurrent;
+            releaseQuietly(finished);
+            mEmitter.onNext(mIndex);
+        }
+
+        private void fail(Throwable error) {
+            cancel();
+            mEmitter.tryOnError(error);
+        }
+
+        synchronized void cancel() {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            if (mNext != null) {
+                releaseQuietly(mNext);
+                mNext = null;
+            }
+            if (mCurrent != null) {
+                MediaPlayer current = mCurrent;
+                mCurrent = null;
+                try {
+                    current.stop();
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "stop fail, IllegalStateException: " + e.getMessage());
+                }
+                releaseQuietly(current);
+                clearPlayer(current);
+            }
+        }
+    }
+
+    private synchronized void clearPlayer(MediaPlayer player) {
+        if (mPlayer == player) {
+            mPlayer = null;
+        }
+    }
+
     private static class RxAudioPlayerHolder {
         private static final RxAudioPlayer INSTANCE = new RxAudioPlayer();
     }
@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import io.reactivex.Observable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Get {@link AudioStats} snapshots of {@link StreamAudioRecorder} and {@link StreamAudioPlayer}
+ * in Rx way. Metrics are always collected on the audio threads without allocation, only the
+ * snapshot allocates.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class RxAudioStats {
+
+    private static final int DEFAULT_STATS_INTERVAL = 1000;
+
+    private RxAudioStats() {
+        // no instance
+    }
+
+    public static Observable<AudioStats> from() {
+        return from(DEFAULT_STATS_INTERVAL);
+    }
+
+    public static Observable<AudioStats> from(long interval) {
+        return Observable.interval(interval, TimeUnit.MILLISECONDS)
+                .map(aLong -> snapshot());
+    }
+
+    public static AudioStats snapshot() {
+        AudioStats stats = new AudioStats();
+        stats.mTimestampNanos = System.nanoTime();
+        StreamAudioRecorder.getInstance().fillStats(stats);
+        StreamAudioPlayer.getInstance().fillStats(stats);
+        return stats;
+    }
+
+    public static void reset() {
+        StreamAudioRecorder.getInstance().resetStats();
+        StreamAudioPlayer.getInstance().resetStats();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import androidx.annotation.NonNull;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.schedulers.Schedulers;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Get playback or record position in milliseconds in Rx way, at a configurable rate.
+ *
+ * All subscribers of the same player and interval share one ticker, which is stopped when the
+ * last one disposes, and new subscribers get the latest position at once. Ticks read the
+ * position from the player directly as primitive, and only a changed position is boxed and
+ * emitted, so an idle or paused player costs no allocation.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class RxPlaybackPosition {
+
+    private static final int DEFAULT_POSITION_INTERVAL = 50;
+
+    // guarded by itself
+    private static final Map<Ticker, Observable<Long>> TICKERS = new HashMap<>();
+
+    private RxPlaybackPosition() {
+        // no instance
+    }
+
+    public static Observable<Long> from(@NonNull StreamAudioPlayer player) {
+        return from(player, DEFAULT_POSITION_INTERVAL);
+    }
+
+    /**
+     * Frame accurate position since the latest {@code init}, -1 if not initialized.
+     */
+    public static Observable<Long> from(@NonNull StreamAudioPlayer player, long interval) {
+        return ticker(player, interval);
+    }
+
+    public static Observable<Long> from(@NonNull RxAudioPlayer player) {
+        return from(player, DEFAULT_POSITION_INTERVAL);
+    }
+
+    /**
+     * Position of the current MediaPlayer, -1 if not playing.
+     */
+    public static Observable<Long> from(@NonNull RxAudioPlayer player, long interval) {
+        return ticker(player, interval);
+    }
+
+    public static Observable<Long> from(@NonNull AudioRecorder recorder) {
+        return from(recorder, DEFAULT_POSITION_INTERVAL);
+    }
+
+    /**
+     * Recorded duration, -1 if not recording.
+     */
+    public static Observable<Long> from(@NonNull AudioRecorder recorder, long interval) {
+        return ticker(recorder, interval);
+    }
+
+    private static Observable<Long> ticker(Object source, long interval) {
+        Ticker key = new Ticker(source, interval);
+        synchronized (TICKERS) {
+            Observable<Long> ticker = TICKERS.get(key);
+            if (ticker == null) {
+                // drop the entry when the last subscriber disposes, so the source isn't leaked
+                @SuppressWarnings("unchecked")
+                final Observable<Long>[] holder = new Observable[1];
+                ticker = Observable.create(new Poller(source, interval))
+                        .doFinally(() -> {
+                            synchronized (TICKERS) {
+                                if (TICKERS.get(key) == holder[0]) {
+                                    TICKERS.remove(key);
+                                }
+                            }
+                        })
+                        .replay(1)
+                        .refCount();
+                holder[0] = ticker;
+                TICKERS.put(key, ticker);
+            }
+            return ticker;
+        }
+    }
+
+    private static long position(Object source) {
+        if (source instanceof StreamAudioPlayer) {
+            return ((StreamAudioPlayer) source).getPositionMillis();
+        } else if (source instanceof RxAudioPlayer) {
+            return ((RxAudioPlayer) source).getPositionMillis();
+        } else {
+            return ((AudioRecorder) source).getPositionMillis();
+        }
+    }
+
+    private static final class Poller implements ObservableOnSubscribe<Long> {
+        private final Object mSource;
+        private final long mInterval;
+
+        Poller(Object source, long interval) {
+            mSource = source;
+            mInterval = interval;
+        }
+
+        @Override
+        public void subscribe(ObservableEmitter<Long> emitter) {
+            emitter.setDisposable(Schedulers.computation().schedulePeriodicallyDirect(
+                    new Runnable() {
+                        private long mLast = Long.MIN_VALUE;
+
+                        @Override
+                        public void run() {
+                            long position = position(mSource);
+                            if (position != mLast) {
+                                mLast = position;
+                                emitter.onNext(position);
+                            }
+                        }
+                    }, 0, mInterval, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static final class Ticker {
+        private final Object mSource;
+        private final long mInterval;
+
+        Ticker(Object source, long interval) {
+            mSource = source;
+            mInterval = interval;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Ticker)) {
+                return false;
+            }
+            Ticker ticker = (Ticker) o;
+            return mSource == ticker.mSource && mInterval == ticker.mInterval;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(mSource) + (int) (mInterval ^ (mInterval >>> 32));
+        }
+    }
+}
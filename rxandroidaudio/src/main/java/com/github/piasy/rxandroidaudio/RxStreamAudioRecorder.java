@@ -0,0 +1,474 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.exceptions.MissingBackpressureException;
+import io.reactivex.schedulers.Schedulers;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Streaming capture in Rx way, wrapping {@link StreamAudioRecorder}.
+ *
+ * Emitted {@link PcmFrame}s come from a pool, call {@link PcmFrame#release()} after using them
+ * to avoid allocation. How to deal with slow downstream is specified by
+ * {@link StreamRecordConfig.Builder#backpressure(int, int)}, the record thread is never blocked
+ * by downstream: it only enqueues frames, they are emitted on a {@link Schedulers#io()} worker,
+ * and spilled to disk on another one, which never waits for downstream.
+ *
+ * <em>NOTE: it shares the singleton {@link StreamAudioRecorder}, so only one record could be
+ * active at the same time.</em>
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class RxStreamAudioRecorder {
+
+    private static final String TAG = "RxStreamAudioRecorder";
+
+    private final StreamAudioRecorder mStreamAudioRecorder;
+
+    private RxStreamAudioRecorder() {
+        // singleton
+        mStreamAudioRecorder = StreamAudioRecorder.getInstance();
+    }
+
+    public static RxStreamAudioRecorder getInstance() {
+        return RxStreamAudioRecorderHolder.INSTANCE;
+    }
+
+    /**
+     * Start record when subscribed, stop record when cancelled. The stream never completes, it
+     * terminates with error if record fails, or the buffer overflows with
+     * {@link StreamRecordConfig#BACKPRESSURE_BUFFER}.
+     */
+    public Flowable<PcmFrame> record(@NonNull final StreamRecordConfig config) {
+        if (!config.isArgumentValid()) {
+            return Flowable.error(new IllegalArgumentException(""));
+        }
+
+        return Flowable.fromPublisher(subscriber -> {
+            RecordSubscription subscription = new RecordSubscription(subscriber, config);
+            subscriber.onSubscribe(subscription);
+            subscription.start();
+        });
+    }
+
+    private static final class RxStreamAudioRecorderHolder {
+        private static final RxStreamAudioRecorder INSTANCE = new RxStreamAudioRecorder();
+    }
+
+    private final class RecordSubscription extends AtomicInteger
+            implements Subscription, StreamAudioRecorder.AudioDataCallback, Runnable {
+        private static final long serialVersionUID = 1L;
+
+        private final Subscriber<? super PcmFrame> mSubscriber;
+        private final StreamRecordConfig mConfig;
+        private final PcmFramePool mPool;
+        private final ArrayBlockingQueue<PcmFrame> mQueue;
+        private final AtomicLong mRequested;
+        private final Scheduler.Worker mWorker;
+        // only with spill to disk, record thread hands frames to the spill worker by the inbox,
+        // which writes them into queue or file without waiting for downstream
+        private final ArrayBlockingQueue<PcmFrame> mInbox;
+        private final AtomicInteger mSpillWip;
+        private final Scheduler.Worker mSpillWorker;
+        private final Runnable mSpillTask = this::spill;
+
+        private SpillFile mSpillFile;
+        private long mSequence;
+        private volatile boolean mCancelled;
+        private volatile boolean mDone;
+        private Throwable mError;
+
+        RecordSubscription(Subscriber<? super PcmFrame> subscriber, StreamRecordConfig config) {
+            mSubscriber = subscriber;
+            mConfig = config;
+            // frames held by downstream are not in the queue, so pool a few more
+            mPool = new PcmFramePool(config.mBufferSize, config.mBufferCapacity * 2);
+            mQueue = new ArrayBlockingQueue<>(config.mBufferCapacity);
+            mRequested = new AtomicLong();
+            mWorker = Schedulers.io().createWorker();
+            if (config.mBackpressure == StreamRecordConfig.BACKPRESSURE_SPILL_TO_DISK) {
+                mInbox = new ArrayBlockingQueue<>(config.mBufferCapacity);
+                mSpillWip = new AtomicInteger();
+                mSpillWorker = Schedulers.io().createWorker();
+            } else {
+                mInbox = null;
+                mSpillWip = null;
+                mSpillWorker = null;
+            }
+        }
+
+        void start() {
+            if (mCancelled) {
+                return;
+            }
+            if (mConfig.mBackpressure == StreamRecordConfig.BACKPRESSURE_SPILL_TO_DISK) {
+                try {
+                    mSpillFile = new SpillFile(mConfig.mSpillDirectory, mConfig.mBufferSize);
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+            }
+            if (!mStreamAudioRecorder.start(mConfig.mSampleRate, mConfig.mChannelConfig,
+                    mConfig.mAudioFormat, mConfig.mBufferSize, this)) {
+                fail(new IllegalStateException("Start record fail"));
+            }
+        }
+
+        @Override
+        public void onAudioData(byte[] data, int size) {
+            if (mCancelled || mDone) {
+                return;
+            }
+            PcmFrame frame = mPool.obtain();
+            System.arraycopy(data, 0, frame.mData, 0, size);
+            frame.mSize = size;
+            frame.mSequence = mSequence++;
+            frame.mTimestampNanos = System.nanoTime();
+
+            switch (mConfig.mBackpressure) {
+                case StreamRecordConfig.BACKPRESSURE_DROP_OLDEST:
+                    while (!mQueue.offer(frame)) {
+                        PcmFrame oldest = mQueue.poll();
+                        if (oldest != null) {
+                            oldest.release();
+                            mStreamAudioRecorder.onFramesDropped(1);
+                        }
+                    }
+                    break;
+                case StreamRecordConfig.BACKPRESSURE_DROP_NEWEST:
+                    if (!mQueue.offer(frame)) {
+                        frame.release();
+                        mStreamAudioRecorder.onFramesDropped(1);
+                    }
+                    break;
+                case StreamRecordConfig.BACKPRESSURE_BUFFER:
+                    if (!mQueue.offer(frame)) {
+                        frame.release();
+                        fail(new MissingBackpressureException(
+                                "Buffer is full, capacity " + mConfig.mBufferCapacity));
+                        return;
+                    }
+                    break;
+                case StreamRecordConfig.BACKPRESSURE_SPILL_TO_DISK:
+                    // only a disk slower than recording overruns the inbox
+                    if (!mInbox.offer(frame)) {
+                        frame.release();
+                        fail(new MissingBackpressureException(
+                                "Spill is behind, capacity " + mConfig.mBufferCapacity));
+                        return;
+                    }
+                    scheduleSpill();
+                    return;
+                default:
+                    break;
+            }
+            drain();
+        }
+
+        @Override
+        public void onError() {
+            fail(new IllegalStateException("Record fail"));
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException(
+                        "Rule 3.9 violated: positive request amount required but it was " + n));
+                return;
+            }
+            for (; ; ) {
+                long current = mRequested.get();
+                long next = current + n;
+                if (next < 0) {
+                    next = Long.MAX_VALUE;
+                }
+                if (mRequested.compareAndSet(current, next)) {
+                    break;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            mStreamAudioRecorder.stop(this);
+            drain();
+        }
+
+        private void fail(Throwable error) {
+            if (mDone) {
+                return;
+            }
+            mError = error;
+            mDone = true;
+            mStreamAudioRecorder.stop(this);
+            drain();
+        }
+
+        private void drain() {
+            if (getAndIncrement() == 0) {
+                mWorker.schedule(this);
+            }
+        }
+
+        /**
+         * Drain loop on worker, only one runs at a time.
+         */
+        @Override
+        public void run() {
+            int missed = 1;
+            for (; ; ) {
+                long requested = mRequested.get();
+                long emitted = 0;
+                while (emitted != requested) {
+                    if (checkTerminated()) {
+                        return;
+                    }
+                    PcmFrame frame = next();
+                    if (frame == null) {
+                        break;
+                    }
+                    mSubscriber.onNext(frame);
+                    emitted++;
+                }
+                if (checkTerminated()) {
+                    return;
+                }
+                if (emitted != 0 && requested != Long.MAX_VALUE) {
+                    mRequested.addAndGet(-emitted);
+                }
+                missed = addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private boolean checkTerminated() {
+            if (mCancelled) {
+                clear();
+                mWorker.dispose();
+                return true;
+            }
+            if (mDone) {
+                clear();
+                mWorker.dispose();
+                mSubscriber.onError(mError);
+                return true;
+            }
+            return false;
+        }
+
+        private void scheduleSpill() {
+            if (mSpillWip.getAndIncrement() == 0) {
+                mSpillWorker.schedule(mSpillTask);
+            }
+        }
+
+        /**
+         * Spill loop on spill worker, moves frames from inbox into queue or file.
+         */
+        private void spill() {
+            int missed = 1;
+            for (; ; ) {
+                boolean moved = false;
+                PcmFrame frame;
+                while (!mCancelled && !mDone && (frame = mInbox.poll()) != null) {
+                    try {
+                        mSpillFile.offer(mQueue, frame);
+                        moved = true;
+                    } catch (IOException e) {
+                        Log.w(TAG, "write spill file fail: " + e.getMessage());
+                        fail(e);
+                    }
+                }
+                if (moved) {
+                    drain();
+                }
+                if (mCancelled || mDone) {
+                    while ((frame = mInbox.poll()) != null) {
+                        frame.release();
+                    }
+                    // disposed by itself, so a running write is never interrupted
+                    mSpillWorker.dispose();
+                    return;
+                }
+                missed = mSpillWip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private PcmFrame next() {
+            PcmFrame frame = mQueue.poll();
+            if (frame == null && mSpillFile != null) {
+                try {
+                    frame = mSpillFile.poll(mPool);
+                } catch (IOException e) {
+                    Log.w(TAG, "read spill file fail: " + e.getMessage());
+                    mError = e;
+                    mDone = true;
+                    mStreamAudioRecorder.stop(this);
+                }
+            }
+            return frame;
+        }
+
+        private void clear() {
+            PcmFrame frame;
+            while ((frame = mQueue.poll()) != null) {
+                frame.release();
+            }
+            if (mSpillFile != null) {
+                mSpillFile.close();
+            }
+            if (mSpillWorker != null) {
+                // let the spill worker see the termination and quit
+                scheduleSpill();
+            }
+        }
+    }
+
+    /**
+     * Overflow storage of {@link StreamRecordConfig#BACKPRESSURE_SPILL_TO_DISK}, once a frame is
+     * spilled, all following frames are spilled until the file is drained, to keep order.
+     */
+    private static final class SpillFile {
+        private static final int HEADER_SIZE = 20;
+
+        private final File mFile;
+        private final RandomAccessFile mRandomAccessFile;
+        private final FileChannel mChannel;
+        private final ByteBuffer mBuffer;
+
+        private long mReadPosition;
+        private long mWritePosition;
+        private int mPending;
+        private boolean mClosed;
+
+        SpillFile(File directory, int frameSize) throws IOException {
+            mFile = File.createTempFile("record", ".spill", directory);
+            mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+            mChannel = mRandomAccessFile.getChannel();
+            mBuffer = ByteBuffer.allocateDirect(HEADER_SIZE + frameSize);
+        }
+
+        /**
+         * Put {@code frame} into {@code queue} if nothing spilled and queue is not full,
+         * otherwise write it into file and release it.
+         */
+        synchronized void offer(ArrayBlockingQueue<PcmFrame> queue, PcmFrame frame)
+                throws IOException {
+            if (mPending == 0 && queue.offer(frame)) {
+                return;
+            }
+            if (mClosed) {
+                frame.release();
+                return;
+            }
+            mBuffer.clear();
+            mBuffer.putLong(frame.mSequence)
+                    .putLong(frame.mTimestampNanos)
+                    .putInt(frame.mSize)
+                    .put(frame.mData, 0, frame.mSize);
+            mBuffer.flip();
+            frame.release();
+            while (mBuffer.hasRemaining()) {
+                mWritePosition += mChannel.write(mBuffer, mWritePosition);
+            }
+            mPending++;
+        }
+
+        synchronized PcmFrame poll(PcmFramePool pool) throws IOException {
+            if (mPending == 0 || mClosed) {
+                return null;
+            }
+            mBuffer.clear();
+            mBuffer.limit(HEADER_SIZE);
+            readFully();
+            PcmFrame frame = pool.obtain();
+            frame.mSequence = mBuffer.getLong(0);
+            frame.mTimestampNanos = mBuffer.getLong(8);
+            frame.mSize = mBuffer.getInt(16);
+            mBuffer.clear();
+            mBuffer.limit(frame.mSize);
+            readFully();
+            mBuffer.flip();
+            mBuffer.get(frame.mData, 0, frame.mSize);
+            if (--mPending == 0) {
+                // reuse the file from beginning
+                mReadPosition = 0;
+                mWritePosition = 0;
+            }
+            return frame;
+        }
+
+        synchronized void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                Log.w(TAG, "close spill file fail: " + e.getMessage());
+            }
+            if (!mFile.delete()) {
+                Log.w(TAG, "delete spill file fail: " + mFile.getAbsolutePath());
+            }
+        }
+
+        private void readFully() throws IOException {
+            while (mBuffer.hasRemaining()) {
+                int read = mChannel.read(mBuffer, mReadPosition);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of spill file");
+                }
+                mReadPosition += read;
+            }
+        }
+    }
+}
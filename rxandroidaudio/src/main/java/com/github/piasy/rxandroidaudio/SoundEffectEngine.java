@@ -0,0 +1,271 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import android.os.Build;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import io.reactivex.Observable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Low latency player of short sounds, e.g. UI or game effects. Clips described by
+ * {@link PlayConfig} are decoded to PCM once and kept in a bounded LRU cache, then
+ * {@link #play(PlayConfig)} only assigns a voice, which is mixed by {@link PcmMixer} on its
+ * render thread, no MediaPlayer is created.
+ *
+ * At most {@code maxVoices} clips sound at the same time, the oldest voice is stolen when all of
+ * them are busy. Volumes and looping of the {@link PlayConfig} are respected.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class SoundEffectEngine implements PcmMixer.Source {
+    private static final String TAG = "SoundEffectEngine";
+
+    private final long mMaxCacheBytes;
+    // access ordered, guarded by itself
+    private final LinkedHashMap<String, PcmDecoder.DecodedPcm> mCache =
+            new LinkedHashMap<>(16, 0.75F, true);
+    private long mCacheBytes;
+
+    // guarded by itself, held shortly by the render thread
+    private final Voice[] mVoices;
+    private int mNextVoiceId;
+
+    /**
+     * @param maxVoices polyphony limit.
+     * @param maxCacheBytes bytes of decoded PCM could be cached, a clip larger than it can't be
+     * loaded.
+     */
+    public SoundEffectEngine(int maxVoices, long maxCacheBytes) {
+        mMaxCacheBytes = maxCacheBytes;
+        mVoices = new Voice[maxVoices];
+        for (int i = 0; i < maxVoices; i++) {
+            mVoices[i] = new Voice();
+        }
+    }
+
+    /**
+     * Decode and cache the clip, should be scheduled in IO thread.
+     */
+    public Observable<Boolean> preload(@NonNull final PlayConfig config) {
+        if (!config.isArgumentValid()) {
+            return Observable.error(new IllegalArgumentException(""));
+        }
+        return Observable.fromCallable(() -> {
+            load(config);
+            return true;
+        });
+    }
+
+    /**
+     * Non reactive API.
+     */
+    @WorkerThread
+    public boolean preloadNonRxy(@NonNull final PlayConfig config) {
+        if (!config.isArgumentValid()) {
+            return false;
+        }
+        try {
+            load(config);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "preload fail: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Start a voice of a preloaded clip, cheap enough to call on main thread.
+     *
+     * @return id of the voice, or -1 if the clip is not preloaded.
+     */
+    public int play(@NonNull PlayConfig config) {
+        PcmDecoder.DecodedPcm clip;
+        synchronized (mCache) {
+            clip = mCache.get(config.cacheKey());
+        }
+        if (clip == null) {
+            Log.w(TAG, "play fail: not preloaded " + config.cacheKey());
+            return -1;
+        }
+        synchronized (mVoices) {
+            Voice voice = mVoices[0];
+            for (Voice candidate : mVoices) {
+                if (candidate.mClip == null) {
+                    voice = candidate;
+                    break;
+                }
+                if (candidate.mId < voice.mId) {
+                    voice = candidate;
+                }
+            }
+            voice.mClip = clip;
+            voice.mId = mNextVoiceId++;
+            voice.mPosition = 0;
+            voice.mLeftGain = config.mLeftVolume;
+            voice.mRightGain = config.mRightVolume;
+            voice.mLooping = config.mLooping;
+            return voice.mId;
+        }
+    }
+
+    public void stop(int voiceId) {
+        synchronized (mVoices) {
+            for (Voice voice : mVoices) {
+                if (voice.mClip != null && voice.mId == voiceId) {
+                    voice.mClip = null;
+                }
+            }
+        }
+    }
+
+    public void stopAll() {
+        synchronized (mVoices) {
+            for (Voice voice : mVoices) {
+                voice.mClip = null;
+            }
+        }
+    }
+
+    /**
+     * Remove the clip from cache, voices playing it are not affected.
+     */
+    public void unload(@NonNull PlayConfig config) {
+        synchronized (mCache) {
+            PcmDecoder.DecodedPcm clip = mCache.remove(config.cacheKey());
+            if (clip != null) {
+                mCacheBytes -= clip.getSizeInBytes();
+            }
+        }
+    }
+
+    public long getCacheSizeBytes() {
+        synchronized (mCache) {
+            return mCacheBytes;
+        }
+    }
+
+    public int getActiveVoiceCount() {
+        int count = 0;
+        synchronized (mVoices) {
+            for (Voice voice : mVoices) {
+                if (voice.mClip != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void mixInto(float[] mix, int frames, int sampleRate) {
+        synchronized (mVoices) {
+            for (Voice voice : mVoices) {
+                if (voice.mClip != null) {
+                    voice.mixInto(mix, frames, sampleRate);
+                }
+            }
+        }
+    }
+
+    @WorkerThread
+    private void load(PlayConfig config) throws IOException {
+        String key = config.cacheKey();
+        synchronized (mCache) {
+            if (mCache.containsKey(key)) {
+                return;
+            }
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            throw new IOException("decode requires API 16");
+        }
+        PcmDecoder.DecodedPcm clip =
+                PcmDecoder.decode(config, (int) Math.min(Integer.MAX_VALUE, mMaxCacheBytes / 2));
+        if (clip.getFrameCount() == 0) {
+            throw new IOException("Empty clip: " + key);
+        }
+        synchronized (mCache) {
+            PcmDecoder.DecodedPcm old = mCache.put(key, clip);
+            if (old != null) {
+                mCacheBytes -= old.getSizeInBytes();
+            }
+            mCacheBytes += clip.getSizeInBytes();
+            Iterator<Map.Entry<String, PcmDecoder.DecodedPcm>> iterator =
+                    mCache.entrySet().iterator();
+            while (mCacheBytes > mMaxCacheBytes && iterator.hasNext()) {
+                Map.Entry<String, PcmDecoder.DecodedPcm> eldest = iterator.next();
+                if (eldest.getValue() != clip) {
+                    mCacheBytes -= eldest.getValue().getSizeInBytes();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static final class Voice {
+        PcmDecoder.DecodedPcm mClip;
+        int mId;
+        double mPosition;
+        float mLeftGain;
+        float mRightGain;
+        boolean mLooping;
+
+        void mixInto(float[] mix, int frames, int sampleRate) {
+            short[] samples = mClip.mSamples;
+            int channels = mClip.mChannelCount;
+            int frameCount = mClip.getFrameCount();
+            double step = (double) mClip.mSampleRate / sampleRate;
+            float leftGain = mLeftGain / 32768F;
+            float rightGain = mRightGain / 32768F;
+            for (int i = 0; i < frames; i++) {
+                if (mPosition >= frameCount) {
+                    if (!mLooping) {
+                        mClip = null;
+                        return;
+                    }
+                    mPosition -= frameCount;
+                }
+                int index = (int) mPosition;
+                float fraction = (float) (mPosition - index);
+                int next = index + 1 < frameCount ? index + 1 : (mLooping ? 0 : index);
+                int left = index * channels;
+                int nextLeft = next * channels;
+                int right = left + channels - 1;
+                int nextRight = nextLeft + channels - 1;
+                mix[i * 2] += (samples[left] + (samples[nextLeft] - samples[left]) * fraction)
+                              * leftGain;
+                mix[i * 2 + 1] +=
+                        (samples[right] + (samples[nextRight] - samples[right]) * fraction)
+                        * rightGain;
+                mPosition += step;
+            }
+        }
+    }
+}
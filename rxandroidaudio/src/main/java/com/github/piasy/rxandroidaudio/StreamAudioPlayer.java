@@ -24,24 +24,69 @@
 
 package com.github.piasy.rxandroidaudio;
 
+import android.content.Context;
+import android.media.AudioAttributes;
 import android.media.AudioFormat;
 import android.media.AudioManager;
+import android.media.AudioTimestamp;
 import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Process;
+import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 import android.util.Log;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Created by Piasy{github.com/Piasy} on 16/2/24.
  *
+ * Besides the blocking {@link #play(byte[], int)}, it has an async mode started by
+ * {@link #startAsync(int, int, int)}, in which producers {@link #enqueue(byte[], int)} data
+ * without blocking, and a dedicated writer thread drains the queue into the track.
+ *
+ * {@link #initLowLatency(Context, int, int)} creates the track at the device native sample rate
+ * and burst size, for live monitoring; writes should be multiples of
+ * {@link #getBurstSizeBytes()} in that mode.
+ *
+ * {@link #setPlaybackSpeed(float)} time stretches 16 bit data of {@link #play(byte[], int)},
+ * {@link #play(ByteBuffer, int)} and the async mode with a {@link TimeStretcher}, the pitch is
+ * kept. Float data of {@link #play(float[], int)} is not stretched.
+ *
  * <em>NOTE: users should only have one instance active at the same time.</em>
  */
 
 @SuppressWarnings({"unused", "WeakerAccess", "UnusedReturnValue"})
 public final class StreamAudioPlayer {
     private static final String TAG = "StreamAudioPlayer";
+    private static final int STRETCH_BUFFER_SIZE = 4096;
     public static final int DEFAULT_SAMPLE_RATE = 44100;
+    public static final int DEFAULT_LATE_THRESHOLD_MILLIS = 100;
 
-    private AudioTrack mAudioTrack;
+    private final LatencyHistogram mWriteHistogram = new LatencyHistogram();
+    private volatile AudioTrack mAudioTrack;
+    // for ByteBuffer play before API 21
+    private byte[] mCompatBuffer;
+    private volatile AsyncWriter mAsyncWriter;
+    private volatile long mLateThresholdNanos =
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_LATE_THRESHOLD_MILLIS);
+    private volatile int mSampleRate;
+    // frames accepted by the track since init, position never runs past it
+    private volatile long mWrittenFrames;
+    private int mFrameBytes;
+    private int mBurstSizeFrames;
+    private int mChannelCount;
+    private int mAudioFormat;
+    private float mSpeed = 1F;
+    // created on the first speed change, it keeps running afterwards even at speed 1, so the
+    // stream stays continuous, null until then
+    private TimeStretcher mTimeStretcher;
+    private byte[] mStretchBuffer;
+    // reused by getPositionFrames, not guarded by this, which is held while writing
+    private final Object mTimestampLock = new Object();
+    private AudioTimestamp mTimestamp;
 
     private StreamAudioPlayer() {
         // singleton
@@ -62,42 +107,332 @@ public final class StreamAudioPlayer {
 
     /**
      * AudioFormat.CHANNEL_OUT_MONO
-     * AudioFormat.ENCODING_PCM_16BIT
+     * AudioFormat.ENCODING_PCM_16BIT, or AudioFormat.ENCODING_PCM_FLOAT for
+     * {@link #play(float[], int)}
      *
      * @param bufferSize user may want to write data larger than minBufferSize, so they should able
      * to increase it
      */
     public synchronized void init(int sampleRate, int channelConfig, int audioFormat,
             int bufferSize) {
-        if (mAudioTrack != null) {
-            mAudioTrack.release();
-            mAudioTrack = null;
-        }
+        releaseTrack();
         int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, channelConfig, audioFormat);
         mAudioTrack =
                 new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, channelConfig, audioFormat,
                         Math.max(minBufferSize, bufferSize), AudioTrack.MODE_STREAM);
+        setFormat(sampleRate, channelConfig, audioFormat, 0);
         mAudioTrack.play();
     }
 
+    /**
+     * Init with the device native output sample rate, so the mixer doesn't resample, and a buffer
+     * of {@code bursts} native bursts. Since API 26 the track asks for
+     * {@link AudioTrack#PERFORMANCE_MODE_LOW_LATENCY}, i.e. the fast mixer path.
+     *
+     * Data must be at {@link #getSampleRate()}, and writes should be multiples of
+     * {@link #getBurstSizeBytes()}. The latency actually got is {@link #getLatencyMillis()}.
+     *
+     * @param bursts buffer size in bursts, 2 is double buffering, increase it if underrun.
+     */
+    public synchronized void initLowLatency(Context context, int channelConfig, int bursts) {
+        releaseTrack();
+        AudioManager audioManager =
+                (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        int sampleRate = DEFAULT_SAMPLE_RATE;
+        int burstFrames = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            sampleRate = parseProperty(audioManager,
+                    AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE, DEFAULT_SAMPLE_RATE);
+            burstFrames = parseProperty(audioManager,
+                    AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER, 0);
+        }
+        int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
+        int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, channelConfig, audioFormat);
+        setFormat(sampleRate, channelConfig, audioFormat, burstFrames);
+        int bufferSize = Math.max(minBufferSize, mBurstSizeFrames * mFrameBytes * bursts);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            AudioTrack.Builder builder = new AudioTrack.Builder()
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                            .setUsage(AudioAttributes.USAGE_MEDIA)
+                            .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                            .build())
+                    .setAudioFormat(new AudioFormat.Builder()
+                            .setSampleRate(sampleRate)
+                            .setChannelMask(channelConfig)
+                            .setEncoding(audioFormat)
+                            .build())
+                    .setBufferSizeInBytes(bufferSize)
+                    .setTransferMode(AudioTrack.MODE_STREAM);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                builder.setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY);
+            }
+            mAudioTrack = builder.build();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                // fast tracks may be allocated larger than asked, trim the used part
+                mAudioTrack.setBufferSizeInFrames(mBurstSizeFrames * bursts);
+            }
+        } else {
+            mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, channelConfig,
+                    audioFormat, bufferSize, AudioTrack.MODE_STREAM);
+        }
+        mAudioTrack.play();
+        Log.i(TAG, "initLowLatency: sample rate " + sampleRate + ", burst " + mBurstSizeFrames
+                   + " frames, latency " + getLatencyMillis() + " ms");
+    }
+
+    public synchronized int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * Native burst size in frames, or {@code minBufferSize} if the device doesn't report it.
+     */
+    public synchronized int getBurstSizeFrames() {
+        return mBurstSizeFrames;
+    }
+
+    public synchronized int getBurstSizeBytes() {
+        return mBurstSizeFrames * mFrameBytes;
+    }
+
+    /**
+     * Latency of the track buffer in use, not including the HAL and hardware, -1 if not
+     * initialized.
+     */
+    public synchronized int getLatencyMillis() {
+        if (mAudioTrack == null || mSampleRate == 0) {
+            return -1;
+        }
+        int frames;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            frames = mAudioTrack.getBufferSizeInFrames();
+        } else {
+            frames = AudioTrack.getMinBufferSize(mSampleRate, mAudioTrack.getChannelConfiguration(),
+                    mAudioTrack.getAudioFormat()) / mFrameBytes;
+        }
+        return (int) (1000L * frames / mSampleRate);
+    }
+
+    /**
+     * Frames presented since the latest {@code init}, extrapolated from
+     * {@link AudioTrack#getTimestamp(AudioTimestamp)} since API 19, so it's frame accurate even
+     * between timestamp updates, or from the playback head position before it. It's not
+     * extrapolated unless the track is playing, and never exceeds the frames written, so it
+     * stays put when paused or starved.
+     *
+     * With a playback speed other than 1, frames are counted after time stretch.
+     *
+     * @return frames count, or -1 if not initialized.
+     */
+    public long getPositionFrames() {
+        AudioTrack audioTrack = mAudioTrack;
+        if (audioTrack == null) {
+            return -1;
+        }
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                synchronized (mTimestampLock) {
+                    if (mTimestamp == null) {
+                        mTimestamp = new AudioTimestamp();
+                    }
+                    if (audioTrack.getTimestamp(mTimestamp)) {
+                        long position = mTimestamp.framePosition;
+                        if (audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
+                            long elapsedNanos = System.nanoTime() - mTimestamp.nanoTime;
+                            position += elapsedNanos * mSampleRate / 1_000_000_000L;
+                        }
+                        return Math.min(position, mWrittenFrames);
+                    }
+                }
+            }
+            // unsigned 32 bits
+            return Math.min(audioTrack.getPlaybackHeadPosition() & 0xFFFFFFFFL, mWrittenFrames);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "getPositionFrames fail: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * @return milliseconds presented since the latest {@code init}, or -1 if not initialized.
+     */
+    public long getPositionMillis() {
+        long frames = getPositionFrames();
+        int sampleRate = mSampleRate;
+        return frames < 0 || sampleRate == 0 ? -1 : frames * 1000 / sampleRate;
+    }
+
+    private void setFormat(int sampleRate, int channelConfig, int audioFormat, int burstFrames) {
+        mSampleRate = sampleRate;
+        mWrittenFrames = 0;
+        mChannelCount = Integer.bitCount(channelConfig);
+        mAudioFormat = audioFormat;
+        int channels = mChannelCount;
+        int bytesPerSample = audioFormat == AudioFormat.ENCODING_PCM_8BIT ? 1
+                : audioFormat == AudioFormat.ENCODING_PCM_FLOAT ? 4 : 2;
+        mFrameBytes = channels * bytesPerSample;
+        mBurstSizeFrames = burstFrames > 0 ? burstFrames
+                : AudioTrack.getMinBufferSize(sampleRate, channelConfig, audioFormat)
+                  / mFrameBytes;
+        updateTimeStretcher();
+    }
+
+    /**
+     * Change the playback speed of 16 bit data, keeping the pitch, float tracks are played at
+     * speed 1 with a warning logged. It takes effect within
+     * {@link TimeStretcher#SEQUENCE_MILLIS}, and is kept across {@code init}. Call
+     * {@link #drain()} at the end of stream once the speed is changed.
+     *
+     * @param speed {@link TimeStretcher#MIN_SPEED}~{@link TimeStretcher#MAX_SPEED}.
+     */
+    public synchronized void setPlaybackSpeed(float speed) {
+        if (speed < TimeStretcher.MIN_SPEED || speed > TimeStretcher.MAX_SPEED) {
+            throw new IllegalArgumentException("speed " + speed + " out of ["
+                                               + TimeStretcher.MIN_SPEED + ", "
+                                               + TimeStretcher.MAX_SPEED + "]");
+        }
+        mSpeed = speed;
+        updateTimeStretcher();
+    }
+
+    public synchronized float getPlaybackSpeed() {
+        return mSpeed;
+    }
+
+    private void updateTimeStretcher() {
+        if (mTimeStretcher == null) {
+            if (mSpeed == 1F || mSampleRate == 0) {
+                return;
+            }
+            if (mAudioFormat != AudioFormat.ENCODING_PCM_16BIT) {
+                Log.w(TAG, "setPlaybackSpeed: only 16 bit PCM could be time stretched");
+                return;
+            }
+            mTimeStretcher = new TimeStretcher(mSampleRate, mChannelCount);
+            if (mStretchBuffer == null) {
+                mStretchBuffer = new byte[STRETCH_BUFFER_SIZE];
+            }
+        }
+        mTimeStretcher.setSpeed(mSpeed);
+    }
+
+    private static int parseProperty(AudioManager audioManager, String key, int defaultValue) {
+        String value = audioManager.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "parse " + key + " fail: " + value);
+            return defaultValue;
+        }
+    }
+
+    private void releaseTrack() {
+        if (mAudioTrack != null) {
+            mAudioTrack.release();
+            mAudioTrack = null;
+        }
+        // format may change
+        mTimeStretcher = null;
+    }
+
     @WorkerThread
     public synchronized boolean play(byte[] data, int size) {
+        if (mAudioTrack != null) {
+            return mTimeStretcher == null ? write(data, size) : playStretched(data, size);
+        }
+        Log.w(TAG, "play fail: null mAudioTrack");
+        return false;
+    }
+
+    /**
+     * Play out the data held by the time stretcher with some silence, call it at the end of
+     * stream if {@link #setPlaybackSpeed(float)} is used, the next data starts a new stream.
+     */
+    @WorkerThread
+    public synchronized boolean drain() {
+        if (mAudioTrack == null) {
+            Log.w(TAG, "drain fail: null mAudioTrack");
+            return false;
+        }
+        if (mTimeStretcher == null) {
+            return true;
+        }
+        mTimeStretcher.flush();
+        return writeStretched();
+    }
+
+    private boolean playStretched(byte[] data, int size) {
+        int offset = 0;
+        while (offset < size) {
+            offset += mTimeStretcher.write(data, offset, size - offset);
+            if (!writeStretched()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean playStretched(ByteBuffer data, int size) {
+        if (mCompatBuffer == null || mCompatBuffer.length < STRETCH_BUFFER_SIZE) {
+            mCompatBuffer = new byte[STRETCH_BUFFER_SIZE];
+        }
+        int left = size;
+        while (left > 0) {
+            int count = Math.min(left, STRETCH_BUFFER_SIZE);
+            data.get(mCompatBuffer, 0, count);
+            if (!playStretched(mCompatBuffer, count)) {
+                return false;
+            }
+            left -= count;
+        }
+        return true;
+    }
+
+    private boolean writeStretched() {
+        int read;
+        while ((read = mTimeStretcher.read(mStretchBuffer, 0, mStretchBuffer.length)) > 0) {
+            if (!write(mStretchBuffer, read)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean write(byte[] data, int size) {
+        try {
+            long start = System.nanoTime();
+            int ret = mAudioTrack.write(data, 0, size);
+            mWriteHistogram.record(System.nanoTime() - start);
+            return checkWriteResult(ret, mFrameBytes);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "play fail: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Play float samples in [-1, 1], the track should be initialized with
+     * {@link AudioFormat#ENCODING_PCM_FLOAT}. Requires API 21. Not affected by
+     * {@link #setPlaybackSpeed(float)}.
+     *
+     * @param size samples count.
+     */
+    @WorkerThread
+    public synchronized boolean play(float[] data, int size) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            Log.w(TAG, "play fail: float play requires API 21");
+            return false;
+        }
         if (mAudioTrack != null) {
             try {
-                int ret = mAudioTrack.write(data, 0, size);
-                switch (ret) {
-                    case AudioTrack.ERROR_INVALID_OPERATION:
-                        Log.w(TAG, "play fail: ERROR_INVALID_OPERATION");
-                        return false;
-                    case AudioTrack.ERROR_BAD_VALUE:
-                        Log.w(TAG, "play fail: ERROR_BAD_VALUE");
-                        return false;
-                    case AudioManager.ERROR_DEAD_OBJECT:
-                        Log.w(TAG, "play fail: ERROR_DEAD_OBJECT");
-                        return false;
-                    default:
-                        return true;
-                }
+                long start = System.nanoTime();
+                int ret = mAudioTrack.write(data, 0, size, AudioTrack.WRITE_BLOCKING);
+                mWriteHistogram.record(System.nanoTime() - start);
+                return checkWriteResult(ret, mChannelCount);
             } catch (IllegalStateException e) {
                 Log.w(TAG, "play fail: " + e.getMessage());
                 return false;
@@ -107,10 +442,253 @@ public final class StreamAudioPlayer {
         return false;
     }
 
-    public synchronized void release() {
+    /**
+     * Play {@code size} bytes from the current position of {@code data}, the position is
+     * advanced by the bytes played. Direct buffers, e.g. {@link java.nio.MappedByteBuffer}, are
+     * written without heap copy since API 21, unless {@link #setPlaybackSpeed(float)} is used.
+     */
+    @WorkerThread
+    public synchronized boolean play(ByteBuffer data, int size) {
+        if (mAudioTrack != null && mTimeStretcher != null) {
+            return playStretched(data, size);
+        }
         if (mAudioTrack != null) {
-            mAudioTrack.release();
-            mAudioTrack = null;
+            try {
+                long start = System.nanoTime();
+                int ret;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    ret = mAudioTrack.write(data, size, AudioTrack.WRITE_BLOCKING);
+                } else {
+                    if (mCompatBuffer == null || mCompatBuffer.length < size) {
+                        mCompatBuffer = new byte[size];
+                    }
+                    data.get(mCompatBuffer, 0, size);
+                    ret = mAudioTrack.write(mCompatBuffer, 0, size);
+                }
+                mWriteHistogram.record(System.nanoTime() - start);
+                return checkWriteResult(ret, mFrameBytes);
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "play fail: " + e.getMessage());
+                return false;
+            }
+        }
+        Log.w(TAG, "play fail: null mAudioTrack");
+        return false;
+    }
+
+    /**
+     * Start async mode, a writer thread with {@link Process#THREAD_PRIORITY_URGENT_AUDIO} drains
+     * the queue into the track initialized by {@code init}.
+     *
+     * @param frameSize max bytes count of each {@link #enqueue(byte[], int)}.
+     * @param queueCapacity frames count could be queued, rounded up to power of 2.
+     * @param overflow what to drop when the queue is full.
+     */
+    public void startAsync(int frameSize, int queueCapacity,
+            @PcmFrameHub.Overflow int overflow) {
+        stopAsync();
+        AsyncWriter writer = new AsyncWriter(frameSize, queueCapacity, overflow);
+        synchronized (this) {
+            mAsyncWriter = writer;
+        }
+        writer.mThread.start();
+    }
+
+    /**
+     * Stop async mode, queued data is discarded.
+     */
+    public void stopAsync() {
+        AsyncWriter writer;
+        synchronized (this) {
+            writer = mAsyncWriter;
+            mAsyncWriter = null;
+        }
+        // join without lock, the writer thread needs it to play
+        if (writer != null) {
+            writer.quit();
+        }
+    }
+
+    /**
+     * Frames waiting longer than the threshold in async queue are counted as late.
+     */
+    public void setLateThreshold(long millis) {
+        mLateThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Copy data into the async queue without blocking, safe to call from multiple threads.
+     *
+     * @return false if async mode is not started, or the data is dropped.
+     */
+    public boolean enqueue(byte[] data, int size) {
+        AsyncWriter writer = mAsyncWriter;
+        if (writer == null) {
+            Log.w(TAG, "enqueue fail: async mode not started");
+            return false;
+        }
+        if (size > writer.mPool.getFrameSize()) {
+            Log.w(TAG, "enqueue fail: frame size too small for data of size " + size);
+            return false;
+        }
+        PcmFrame frame = writer.mPool.obtain();
+        System.arraycopy(data, 0, frame.mData, 0, size);
+        frame.mSize = size;
+        frame.mTimestampNanos = System.nanoTime();
+        return writer.enqueue(frame);
+    }
+
+    /**
+     * Put a frame into the async queue without blocking, the frame is retained until played.
+     * Its lateness is measured from its timestamp, e.g. the record time. Pooled frames are
+     * queued without copy, frames of {@link PcmFrameRing} are copied like
+     * {@link #enqueue(byte[], int)}, since the ring overwrites them regardless of references.
+     *
+     * @return false if async mode is not started, or the frame is dropped.
+     */
+    public boolean enqueue(@NonNull PcmFrame frame) {
+        AsyncWriter writer = mAsyncWriter;
+        if (writer == null) {
+            Log.w(TAG, "enqueue fail: async mode not started");
+            return false;
+        }
+        if (frame.isPooled()) {
+            frame.retain();
+            return writer.enqueue(frame);
+        }
+        if (frame.mSize > writer.mPool.getFrameSize()) {
+            Log.w(TAG, "enqueue fail: frame size too small for data of size " + frame.mSize);
+            return false;
+        }
+        PcmFrame copy = writer.mPool.obtain();
+        System.arraycopy(frame.mData, 0, copy.mData, 0, frame.mSize);
+        copy.mSize = frame.mSize;
+        copy.mSequence = frame.mSequence;
+        copy.mTimestampNanos = frame.mTimestampNanos;
+        return writer.enqueue(copy);
+    }
+
+    void fillStats(AudioStats stats) {
+        AsyncWriter writer = mAsyncWriter;
+        if (writer != null) {
+            stats.mQueueDepth = writer.mQueue.size();
+            stats.mLateFrames = writer.mLateFrames.get();
+            stats.mQueueDroppedFrames = writer.mDropped.get();
+        }
+        stats.mWrite = mWriteHistogram.snapshot();
+        stats.mUnderrunCount = -1;
+        AudioTrack audioTrack = mAudioTrack;
+        if (audioTrack != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            try {
+                stats.mUnderrunCount = audioTrack.getUnderrunCount();
+            } catch (IllegalStateException e) {
+                // released concurrently
+                Log.w(TAG, "getUnderrunCount fail: " + e.getMessage());
+            }
+        }
+    }
+
+    void resetStats() {
+        mWriteHistogram.reset();
+    }
+
+    /**
+     * @param unitsPerFrame bytes, or floats, per frame, to count the frames written.
+     */
+    private boolean checkWriteResult(int ret, int unitsPerFrame) {
+        switch (ret) {
+            case AudioTrack.ERROR_INVALID_OPERATION:
+                Log.w(TAG, "play fail: ERROR_INVALID_OPERATION");
+                return false;
+            case AudioTrack.ERROR_BAD_VALUE:
+                Log.w(TAG, "play fail: ERROR_BAD_VALUE");
+                return false;
+            case AudioManager.ERROR_DEAD_OBJECT:
+                Log.w(TAG, "play fail: ERROR_DEAD_OBJECT");
+                return false;
+            default:
+                if (ret > 0) {
+                    mWrittenFrames += ret / unitsPerFrame;
+                }
+                return true;
+        }
+    }
+
+    public void release() {
+        stopAsync();
+        synchronized (this) {
+            releaseTrack();
+        }
+    }
+
+    private final class AsyncWriter implements Runnable {
+        final Thread mThread;
+        final PcmFramePool mPool;
+        final PcmFrameQueue mQueue;
+        final AtomicLong mDropped;
+        final AtomicLong mLateFrames;
+
+        private final int mOverflow;
+        private volatile boolean mRunning = true;
+
+        AsyncWriter(int frameSize, int queueCapacity, @PcmFrameHub.Overflow int overflow) {
+            mQueue = new PcmFrameQueue(queueCapacity);
+            mPool = new PcmFramePool(frameSize, mQueue.capacity());
+            mOverflow = overflow;
+            mDropped = new AtomicLong();
+            mLateFrames = new AtomicLong();
+            mThread = new Thread(this, TAG);
+        }
+
+        boolean enqueue(PcmFrame frame) {
+            boolean accepted = true;
+            if (mOverflow == PcmFrameHub.OVERFLOW_DROP_OLDEST) {
+                while (!mQueue.offer(frame)) {
+                    PcmFrame oldest = mQueue.poll();
+                    if (oldest != null) {
+                        oldest.release();
+                        mDropped.incrementAndGet();
+                    }
+                }
+            } else if (!mQueue.offer(frame)) {
+                frame.release();
+                mDropped.incrementAndGet();
+                accepted = false;
+            }
+            LockSupport.unpark(mThread);
+            return accepted;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            while (mRunning) {
+                PcmFrame frame = mQueue.poll();
+                if (frame == null) {
+                    // also wake up periodically in case of missed unpark
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+                    continue;
+                }
+                if (System.nanoTime() - frame.mTimestampNanos > mLateThresholdNanos) {
+                    mLateFrames.incrementAndGet();
+                }
+                play(frame.mData, frame.mSize);
+                frame.release();
+            }
+            PcmFrame frame;
+            while ((frame = mQueue.poll()) != null) {
+                frame.release();
+            }
+        }
+
+        void quit() {
+            mRunning = false;
+            LockSupport.unpark(mThread);
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "stopAsync interrupted: " + e.getMessage());
+            }
         }
     }
 }
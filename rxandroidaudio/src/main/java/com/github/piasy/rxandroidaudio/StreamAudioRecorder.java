@@ -27,11 +27,15 @@ package com.github.piasy.rxandroidaudio;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Process;
 import android.util.Log;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
@@ -39,6 +43,9 @@ import androidx.annotation.WorkerThread;
 /**
  * Created by Piasy{github.com/Piasy} on 16/2/24.
  *
+ * Records run on one long-lived thread with {@link Process#THREAD_PRIORITY_URGENT_AUDIO}, call
+ * {@link #release()} to quit the thread when recording is no longer needed.
+ *
  * <em>NOTE: users should only have one instance active at the same time.</em>
  */
 
@@ -49,12 +56,25 @@ public final class StreamAudioRecorder {
 
     private static final String TAG = "StreamAudioRecorder";
 
-    private final AtomicBoolean mIsRecording;
     private ExecutorService mExecutorService;
+    private AudioRecordRunnable mRecordRunnable;
+    private volatile boolean mKeepAudioRecord;
+    private volatile long mStartLatencyNanos = -1;
+
+    // time blocked in AudioRecord.read, and time spent in callbacks
+    private final LatencyHistogram mReadHistogram = new LatencyHistogram();
+    private final LatencyHistogram mCallbackHistogram = new LatencyHistogram();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+
+    // only touched on record thread
+    private AudioRecord mWarmAudioRecord;
+    private int mWarmSampleRate;
+    private int mWarmChannelConfig;
+    private int mWarmAudioFormat;
+    private int mWarmBufferSize;
 
     private StreamAudioRecorder() {
         // singleton
-        mIsRecording = new AtomicBoolean(false);
     }
 
     public static StreamAudioRecorder getInstance() {
@@ -72,27 +92,199 @@ public final class StreamAudioRecorder {
      */
     public synchronized boolean start(int sampleRate, int channelConfig, int audioFormat,
             int bufferSize, @NonNull AudioDataCallback audioDataCallback) {
-        stop();
+        return start(new ByteArrayRecordRunnable(sampleRate, channelConfig, audioFormat,
+                bufferSize, audioDataCallback));
+    }
+
+    /**
+     * Record into pre-allocated frames of {@code frameRing}, which are handed to consumer thread
+     * without copy. Frame size of the ring is used as buffer size.
+     */
+    public synchronized boolean start(int sampleRate, int channelConfig, int audioFormat,
+            @NonNull PcmFrameRing frameRing, @NonNull AudioFrameCallback audioFrameCallback) {
+        return start(new FrameRingRecordRunnable(sampleRate, channelConfig, audioFormat,
+                frameRing, audioFrameCallback));
+    }
+
+    /**
+     * Read directly into a native order direct {@link ByteBuffer}, without the short to byte
+     * conversion, the buffer could be passed to JNI, {@link java.nio.channels.FileChannel} or
+     * encoders without further copy.
+     */
+    public synchronized boolean start(int sampleRate, int channelConfig, int audioFormat,
+            int bufferSize, @NonNull AudioBufferCallback audioBufferCallback) {
+        return start(new DirectBufferRecordRunnable(sampleRate, channelConfig, audioFormat,
+                bufferSize, audioBufferCallback));
+    }
 
-        mExecutorService = Executors.newSingleThreadExecutor();
-        if (mIsRecording.compareAndSet(false, true)) {
-            mExecutorService.execute(
-                    new AudioRecordRunnable(sampleRate, channelConfig, audioFormat, bufferSize,
-                            audioDataCallback));
-            return true;
+    /**
+     * Record with {@link AudioFormat#ENCODING_PCM_FLOAT} into a {@code float[]}, samples in
+     * [-1, 1], so float processing stages need no conversion or 16 bit requantization between
+     * them. Requires API 23.
+     *
+     * @param floatBufferSize samples count of each read.
+     * @return false if float capture is not supported.
+     */
+    public synchronized boolean start(int sampleRate, int channelConfig, int floatBufferSize,
+            @NonNull AudioFloatCallback audioFloatCallback) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            Log.w(TAG, "start fail: float record requires API 23");
+            return false;
         }
-        return false;
+        return start(new FloatArrayRecordRunnable(sampleRate, channelConfig, floatBufferSize,
+                audioFloatCallback));
+    }
+
+    private boolean start(AudioRecordRunnable runnable) {
+        stop();
+
+        mStartLatencyNanos = -1;
+        runnable.mStartTimeNanos = System.nanoTime();
+        mRecordRunnable = runnable;
+        getExecutorService().execute(runnable);
+        return true;
     }
 
     public synchronized void stop() {
-        mIsRecording.compareAndSet(true, false);
+        if (mRecordRunnable != null) {
+            mRecordRunnable.mRunning = false;
+            mRecordRunnable = null;
+        }
+    }
+
+    /**
+     * Stop only if the current record delivers to {@code callback}, so an owner of a finished
+     * record can't stop a newer one started by others.
+     */
+    public synchronized void stop(@NonNull Object callback) {
+        if (mRecordRunnable != null && mRecordRunnable.mCallback == callback) {
+            stop();
+        }
+    }
+
+    /**
+     * Keep the {@link AudioRecord} initialized after stop, and reuse it if the next record has
+     * the same format, which saves the re-creation cost of each start. Disabled by default.
+     */
+    public synchronized void setKeepAudioRecord(boolean keepAudioRecord) {
+        mKeepAudioRecord = keepAudioRecord;
+        if (!keepAudioRecord && mExecutorService != null) {
+            mExecutorService.execute(this::releaseWarmAudioRecord);
+        }
+    }
 
+    /**
+     * Create the record thread, and the {@link AudioRecord} if
+     * {@link #setKeepAudioRecord(boolean)} is enabled, ahead of time, so the following
+     * {@code start} with the same format begins capture faster.
+     */
+    public synchronized void prepare(int sampleRate, int channelConfig, int audioFormat,
+            int bufferSize) {
+        getExecutorService().execute(() -> {
+            if (mKeepAudioRecord) {
+                mWarmAudioRecord =
+                        obtainAudioRecord(sampleRate, channelConfig, audioFormat, bufferSize);
+            }
+        });
+    }
+
+    /**
+     * Stop record, release the kept {@link AudioRecord} and quit the record thread.
+     */
+    public synchronized void release() {
+        stop();
         if (mExecutorService != null) {
+            mExecutorService.execute(this::releaseWarmAudioRecord);
             mExecutorService.shutdown();
             mExecutorService = null;
         }
     }
 
+    /**
+     * @return nanoseconds from the latest {@code start} call to the first audio data delivered,
+     * or -1 if no data is delivered yet.
+     */
+    public long getStartLatencyNanos() {
+        return mStartLatencyNanos;
+    }
+
+    void fillStats(AudioStats stats) {
+        stats.mReadBlocked = mReadHistogram.snapshot();
+        stats.mCallback = mCallbackHistogram.snapshot();
+        stats.mDroppedFrames = mDroppedFrames.get();
+        stats.mStartLatencyNanos = mStartLatencyNanos;
+    }
+
+    /**
+     * Count frames dropped by consumers of the recorded data, {@link RxStreamAudioRecorder} and
+     * {@link PcmFrameHub}, into {@link AudioStats#getDroppedFrames()}.
+     */
+    void onFramesDropped(long count) {
+        mDroppedFrames.addAndGet(count);
+    }
+
+    void resetStats() {
+        mReadHistogram.reset();
+        mCallbackHistogram.reset();
+        mDroppedFrames.set(0);
+    }
+
+    private ExecutorService getExecutorService() {
+        if (mExecutorService == null) {
+            mExecutorService = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                runnable.run();
+            }, TAG));
+        }
+        return mExecutorService;
+    }
+
+    @WorkerThread
+    private AudioRecord obtainAudioRecord(int sampleRate, int channelConfig, int audioFormat,
+            int byteBufferSize) {
+        int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, channelConfig, audioFormat);
+        int bufferSize = Math.max(minBufferSize, byteBufferSize);
+        if (mWarmAudioRecord != null) {
+            if (mWarmSampleRate == sampleRate && mWarmChannelConfig == channelConfig
+                && mWarmAudioFormat == audioFormat && mWarmBufferSize == bufferSize
+                && mWarmAudioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
+                AudioRecord audioRecord = mWarmAudioRecord;
+                mWarmAudioRecord = null;
+                return audioRecord;
+            }
+            releaseWarmAudioRecord();
+        }
+        mWarmSampleRate = sampleRate;
+        mWarmChannelConfig = channelConfig;
+        mWarmAudioFormat = audioFormat;
+        mWarmBufferSize = bufferSize;
+        return new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, channelConfig,
+                audioFormat, bufferSize);
+    }
+
+    @WorkerThread
+    private void recycleAudioRecord(AudioRecord audioRecord) {
+        if (mKeepAudioRecord && audioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
+            try {
+                audioRecord.stop();
+                releaseWarmAudioRecord();
+                mWarmAudioRecord = audioRecord;
+                return;
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "stop fail: " + e.getMessage());
+            }
+        }
+        audioRecord.release();
+    }
+
+    @WorkerThread
+    private void releaseWarmAudioRecord() {
+        if (mWarmAudioRecord != null) {
+            mWarmAudioRecord.release();
+            mWarmAudioRecord = null;
+        }
+    }
+
     /**
      * Although Android frameworks jni implementation are the same for ENCODING_PCM_16BIT and
      * ENCODING_PCM_8BIT, the Java doc declared that the buffer type should be the corresponding
@@ -105,89 +297,302 @@ public final class StreamAudioRecorder {
         void onError();
     }
 
+    /**
+     * Callback of direct buffer mode, {@code data} is a native order direct buffer, position is
+     * 0 and limit is {@code size}, it will be reused after this call returns.
+     */
+    public interface AudioBufferCallback {
+        @WorkerThread
+        void onAudioData(ByteBuffer data, int size);
+
+        void onError();
+    }
+
+    /**
+     * Callback of float mode, {@code data} will be reused after this call returns.
+     */
+    public interface AudioFloatCallback {
+        @WorkerThread
+        void onAudioData(float[] data, int size);
+
+        void onError();
+    }
+
+    /**
+     * Callback of frame ring mode, {@link #onFrameAvailable(PcmFrameRing)} and
+     * {@link #onFrameDropped(long)} are called on the record thread, implementations should
+     * hand the work to consumer thread quickly.
+     */
+    public interface AudioFrameCallback {
+        @WorkerThread
+        void onFrameAvailable(PcmFrameRing frameRing);
+
+        /**
+         * The ring is full, data of this read is dropped.
+         *
+         * @param droppedCount total dropped frames count of the ring.
+         */
+        @WorkerThread
+        void onFrameDropped(long droppedCount);
+
+        void onError();
+    }
+
     private static final class StreamAudioRecorderHolder {
         private static final StreamAudioRecorder INSTANCE = new StreamAudioRecorder();
     }
 
-    private class AudioRecordRunnable implements Runnable {
+    private abstract class AudioRecordRunnable implements Runnable {
 
-        private final AudioRecord mAudioRecord;
-        private final AudioDataCallback mAudioDataCallback;
+        final int mSampleRate;
+        final int mChannelConfig;
+        final int mAudioFormat;
+        final int mByteBufferSize;
+        final Object mCallback;
 
-        private final byte[] mByteBuffer;
-        private final short[] mShortBuffer;
-        private final int mByteBufferSize;
-        private final int mShortBufferSize;
-        private final int mAudioFormat;
+        AudioRecord mAudioRecord;
+        long mStartTimeNanos;
+        volatile boolean mRunning = true;
 
-        AudioRecordRunnable(int sampleRate, int channelConfig, int audioFormat, int byteBufferSize,
-                @NonNull AudioDataCallback audioDataCallback) {
+        AudioRecordRunnable(int sampleRate, int channelConfig, int audioFormat,
+                int byteBufferSize, Object callback) {
+            mSampleRate = sampleRate;
+            mChannelConfig = channelConfig;
             mAudioFormat = audioFormat;
-            int minBufferSize =
-                    AudioRecord.getMinBufferSize(sampleRate, channelConfig, mAudioFormat);
             mByteBufferSize = byteBufferSize;
-            mShortBufferSize = mByteBufferSize / 2;
-            mByteBuffer = new byte[mByteBufferSize];
-            mShortBuffer = new short[mShortBufferSize];
-            mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, channelConfig,
-                    audioFormat, Math.max(minBufferSize, byteBufferSize));
-            mAudioDataCallback = audioDataCallback;
+            mCallback = callback;
         }
 
         @Override
         public void run() {
-            if (mAudioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
-                try {
-                    mAudioRecord.startRecording();
-                } catch (IllegalStateException e) {
-                    Log.w(TAG, "startRecording fail: " + e.getMessage());
-                    mAudioDataCallback.onError();
-                    return;
+            if (!mRunning) {
+                // stopped before started
+                return;
+            }
+            mAudioRecord =
+                    obtainAudioRecord(mSampleRate, mChannelConfig, mAudioFormat, mByteBufferSize);
+            if (mAudioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+                mAudioRecord.release();
+                return;
+            }
+            try {
+                mAudioRecord.startRecording();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "startRecording fail: " + e.getMessage());
+                mAudioRecord.release();
+                notifyError();
+                return;
+            }
+            boolean first = true;
+            while (mRunning) {
+                long readStart = System.nanoTime();
+                int ret = readOnce();
+                long readEnd = System.nanoTime();
+                mReadHistogram.record(readEnd - readStart);
+                if (ret <= 0) {
+                    onError(ret);
+                    break;
                 }
-                while (mIsRecording.get()) {
-                    int ret;
-                    if (mAudioFormat == AudioFormat.ENCODING_PCM_16BIT) {
-                        ret = mAudioRecord.read(mShortBuffer, 0, mShortBufferSize);
-                        if (ret > 0) {
-                            mAudioDataCallback.onAudioData(
-                                    short2byte(mShortBuffer, ret, mByteBuffer), ret * 2);
-                        } else {
-                            onError(ret);
-                            break;
-                        }
-                    } else {
-                        ret = mAudioRecord.read(mByteBuffer, 0, mByteBufferSize);
-                        if (ret > 0) {
-                            mAudioDataCallback.onAudioData(mByteBuffer, ret);
-                        } else {
-                            onError(ret);
-                            break;
-                        }
-                    }
+                deliver(ret);
+                mCallbackHistogram.record(System.nanoTime() - readEnd);
+                if (first) {
+                    mStartLatencyNanos = System.nanoTime() - mStartTimeNanos;
+                    first = false;
                 }
             }
-            mAudioRecord.release();
+            recycleAudioRecord(mAudioRecord);
         }
 
-        private byte[] short2byte(short[] sData, int size, byte[] bData) {
-            if (size > sData.length || size * 2 > bData.length) {
-                Log.w(TAG, "short2byte: too long short data array");
-            }
-            for (int i = 0; i < size; i++) {
-                bData[i * 2] = (byte) (sData[i] & 0x00FF);
-                bData[(i * 2) + 1] = (byte) (sData[i] >> 8);
+        /**
+         * Read once from {@link #mAudioRecord}.
+         *
+         * @return result of {@link AudioRecord#read}.
+         */
+        abstract int readOnce();
+
+        /**
+         * Deliver data of last successful {@link #readOnce()}.
+         */
+        abstract void deliver(int size);
+
+        abstract void notifyError();
+
+        /**
+         * Read into {@code byteBuffer}, for ENCODING_PCM_16BIT, read into {@code shortBuffer}
+         * first, then convert into {@code byteBuffer}.
+         *
+         * @return bytes read, or error code.
+         */
+        int read(short[] shortBuffer, byte[] byteBuffer, int byteSize) {
+            if (mAudioFormat == AudioFormat.ENCODING_PCM_16BIT) {
+                int ret = mAudioRecord.read(shortBuffer, 0, byteSize / 2);
+                if (ret > 0) {
+                    if (ret * 2 > byteBuffer.length) {
+                        Log.w(TAG, "short2byte: too long short data array");
+                    }
+                    PcmUtils.short2byte(shortBuffer, ret, byteBuffer);
+                    return ret * 2;
+                }
+                return ret;
+            } else {
+                return mAudioRecord.read(byteBuffer, 0, byteSize);
             }
-            return bData;
         }
 
         private void onError(int errorCode) {
             if (errorCode == AudioRecord.ERROR_INVALID_OPERATION) {
                 Log.w(TAG, "record fail: ERROR_INVALID_OPERATION");
-                mAudioDataCallback.onError();
+                notifyError();
             } else if (errorCode == AudioRecord.ERROR_BAD_VALUE) {
                 Log.w(TAG, "record fail: ERROR_BAD_VALUE");
-                mAudioDataCallback.onError();
+                notifyError();
+            }
+        }
+    }
+
+    private class ByteArrayRecordRunnable extends AudioRecordRunnable {
+
+        private final AudioDataCallback mAudioDataCallback;
+
+        private final byte[] mByteBuffer;
+        private final short[] mShortBuffer;
+
+        ByteArrayRecordRunnable(int sampleRate, int channelConfig, int audioFormat,
+                int byteBufferSize, @NonNull AudioDataCallback audioDataCallback) {
+            super(sampleRate, channelConfig, audioFormat, byteBufferSize, audioDataCallback);
+            mByteBuffer = new byte[mByteBufferSize];
+            mShortBuffer = new short[mByteBufferSize / 2];
+            mAudioDataCallback = audioDataCallback;
+        }
+
+        @Override
+        int readOnce() {
+            return read(mShortBuffer, mByteBuffer, mByteBufferSize);
+        }
+
+        @Override
+        void deliver(int size) {
+            mAudioDataCallback.onAudioData(mByteBuffer, size);
+        }
+
+        @Override
+        void notifyError() {
+            mAudioDataCallback.onError();
+        }
+    }
+
+    private class FrameRingRecordRunnable extends AudioRecordRunnable {
+
+        private final PcmFrameRing mFrameRing;
+        private final AudioFrameCallback mAudioFrameCallback;
+
+        // drain target when the ring is full, AudioRecord must be read to avoid overrun
+        private final byte[] mDropBuffer;
+        private final short[] mShortBuffer;
+        private final int mFrameSize;
+        private long mSequence;
+        private PcmFrame mFrame;
+
+        FrameRingRecordRunnable(int sampleRate, int channelConfig, int audioFormat,
+                @NonNull PcmFrameRing frameRing,
+                @NonNull AudioFrameCallback audioFrameCallback) {
+            super(sampleRate, channelConfig, audioFormat, frameRing.getFrameSize(),
+                    audioFrameCallback);
+            mFrameRing = frameRing;
+            mAudioFrameCallback = audioFrameCallback;
+            mFrameSize = frameRing.getFrameSize();
+            mDropBuffer = new byte[mFrameSize];
+            mShortBuffer = new short[mFrameSize / 2];
+        }
+
+        @Override
+        int readOnce() {
+            mFrame = mFrameRing.acquire();
+            return read(mShortBuffer, mFrame == null ? mDropBuffer : mFrame.mData, mFrameSize);
+        }
+
+        @Override
+        void deliver(int size) {
+            if (mFrame == null) {
+                mSequence++;
+                mDroppedFrames.incrementAndGet();
+                mAudioFrameCallback.onFrameDropped(mFrameRing.getDroppedCount());
+                return;
             }
+            mFrame.mSize = size;
+            mFrame.mSequence = mSequence++;
+            mFrame.mTimestampNanos = System.nanoTime();
+            mFrameRing.publish(mFrame);
+            mFrame = null;
+            mAudioFrameCallback.onFrameAvailable(mFrameRing);
+        }
+
+        @Override
+        void notifyError() {
+            mAudioFrameCallback.onError();
+        }
+    }
+
+    private class DirectBufferRecordRunnable extends AudioRecordRunnable {
+
+        private final AudioBufferCallback mAudioBufferCallback;
+
+        private final ByteBuffer mByteBuffer;
+
+        DirectBufferRecordRunnable(int sampleRate, int channelConfig, int audioFormat,
+                int byteBufferSize, @NonNull AudioBufferCallback audioBufferCallback) {
+            super(sampleRate, channelConfig, audioFormat, byteBufferSize, audioBufferCallback);
+            mByteBuffer = ByteBuffer.allocateDirect(mByteBufferSize)
+                    .order(ByteOrder.nativeOrder());
+            mAudioBufferCallback = audioBufferCallback;
+        }
+
+        @Override
+        int readOnce() {
+            mByteBuffer.clear();
+            return mAudioRecord.read(mByteBuffer, mByteBufferSize);
+        }
+
+        @Override
+        void deliver(int size) {
+            mByteBuffer.limit(size);
+            mAudioBufferCallback.onAudioData(mByteBuffer, size);
+        }
+
+        @Override
+        void notifyError() {
+            mAudioBufferCallback.onError();
+        }
+    }
+
+    private class FloatArrayRecordRunnable extends AudioRecordRunnable {
+
+        private final AudioFloatCallback mAudioFloatCallback;
+
+        private final float[] mFloatBuffer;
+
+        FloatArrayRecordRunnable(int sampleRate, int channelConfig, int floatBufferSize,
+                @NonNull AudioFloatCallback audioFloatCallback) {
+            super(sampleRate, channelConfig, AudioFormat.ENCODING_PCM_FLOAT, floatBufferSize * 4,
+                    audioFloatCallback);
+            mFloatBuffer = new float[floatBufferSize];
+            mAudioFloatCallback = audioFloatCallback;
+        }
+
+        @Override
+        int readOnce() {
+            return mAudioRecord.read(mFloatBuffer, 0, mFloatBuffer.length,
+                    AudioRecord.READ_BLOCKING);
+        }
+
+        @Override
+        void deliver(int size) {
+            mAudioFloatCallback.onAudioData(mFloatBuffer, size);
+        }
+
+        @Override
+        void notifyError() {
+            mAudioFloatCallback.onError();
         }
     }
 }
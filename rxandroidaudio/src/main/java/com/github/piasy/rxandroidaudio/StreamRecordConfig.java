@@ -0,0 +1,183 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import android.media.AudioFormat;
+import androidx.annotation.IntDef;
+import java.io.File;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Config of {@link RxStreamAudioRecorder}, including the record format and how to deal with
+ * slow downstream.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StreamRecordConfig {
+    /**
+     * When the buffer is full, drop the oldest buffered frame, keep latency bounded.
+     */
+    public static final int BACKPRESSURE_DROP_OLDEST = 1;
+    /**
+     * When the buffer is full, drop the newly recorded frame, keep latency bounded.
+     */
+    public static final int BACKPRESSURE_DROP_NEWEST = 2;
+    /**
+     * When the buffer is full, terminate with
+     * {@link io.reactivex.exceptions.MissingBackpressureException}, never lose data silently.
+     */
+    public static final int BACKPRESSURE_BUFFER = 3;
+    /**
+     * When the buffer is full, spill frames into a temp file, never lose data, latency is
+     * bounded only by disk space.
+     */
+    public static final int BACKPRESSURE_SPILL_TO_DISK = 4;
+
+    public static final int DEFAULT_BUFFER_CAPACITY = 16;
+
+    final int mSampleRate;
+
+    final int mChannelConfig;
+
+    final int mAudioFormat;
+
+    final int mBufferSize;
+
+    @Backpressure
+    final int mBackpressure;
+
+    final int mBufferCapacity;
+
+    final File mSpillDirectory;
+
+    private StreamRecordConfig(Builder builder) {
+        mSampleRate = builder.mSampleRate;
+        mChannelConfig = builder.mChannelConfig;
+        mAudioFormat = builder.mAudioFormat;
+        mBufferSize = builder.mBufferSize;
+        mBackpressure = builder.mBackpressure;
+        mBufferCapacity = builder.mBufferCapacity;
+        mSpillDirectory = builder.mSpillDirectory;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    boolean isArgumentValid() {
+        if (mSampleRate <= 0 || mBufferSize <= 0 || mBufferCapacity <= 0) {
+            return false;
+        }
+        switch (mBackpressure) {
+            case BACKPRESSURE_DROP_OLDEST:
+            case BACKPRESSURE_DROP_NEWEST:
+            case BACKPRESSURE_BUFFER:
+                return true;
+            case BACKPRESSURE_SPILL_TO_DISK:
+                return mSpillDirectory != null && mSpillDirectory.isDirectory();
+            default:
+                return false;
+        }
+    }
+
+    @IntDef(value = {
+            BACKPRESSURE_DROP_OLDEST, BACKPRESSURE_DROP_NEWEST, BACKPRESSURE_BUFFER,
+            BACKPRESSURE_SPILL_TO_DISK
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Backpressure {
+    }
+
+    public static class Builder {
+
+        int mSampleRate = StreamAudioRecorder.DEFAULT_SAMPLE_RATE;
+
+        int mChannelConfig = AudioFormat.CHANNEL_IN_MONO;
+
+        int mAudioFormat = AudioFormat.ENCODING_PCM_16BIT;
+
+        int mBufferSize = StreamAudioRecorder.DEFAULT_BUFFER_SIZE;
+
+        @Backpressure
+        int mBackpressure = BACKPRESSURE_DROP_OLDEST;
+
+        int mBufferCapacity = DEFAULT_BUFFER_CAPACITY;
+
+        File mSpillDirectory;
+
+        public Builder sampleRate(int sampleRate) {
+            mSampleRate = sampleRate;
+            return this;
+        }
+
+        /**
+         * {@link AudioFormat#CHANNEL_IN_MONO} etc.
+         */
+        public Builder channelConfig(int channelConfig) {
+            mChannelConfig = channelConfig;
+            return this;
+        }
+
+        /**
+         * {@link AudioFormat#ENCODING_PCM_16BIT} etc.
+         */
+        public Builder audioFormat(int audioFormat) {
+            mAudioFormat = audioFormat;
+            return this;
+        }
+
+        /**
+         * @param bufferSize bytes count of each emitted frame.
+         */
+        public Builder bufferSize(int bufferSize) {
+            mBufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * @param capacity frames count buffered in memory before the strategy takes effect.
+         */
+        public Builder backpressure(@Backpressure int backpressure, int capacity) {
+            mBackpressure = backpressure;
+            mBufferCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Spill frames into {@code spillDirectory} when the memory buffer is full.
+         */
+        public Builder spillToDisk(File spillDirectory, int capacity) {
+            mBackpressure = BACKPRESSURE_SPILL_TO_DISK;
+            mSpillDirectory = spillDirectory;
+            mBufferCapacity = capacity;
+            return this;
+        }
+
+        public StreamRecordConfig build() {
+            return new StreamRecordConfig(this);
+        }
+    }
+}
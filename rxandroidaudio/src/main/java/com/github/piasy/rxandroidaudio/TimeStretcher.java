@@ -0,0 +1,295 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import java.util.Arrays;
+
+/**
+ * WSOLA (waveform similarity overlap-add) time stretch of 16 bit little endian PCM, changes the
+ * playback speed but keeps the pitch, all in time domain, so it costs far less CPU than the
+ * phase vocoder of AudioProcessor.
+ *
+ * Input is cut into sequences of {@link #SEQUENCE_MILLIS}, each is placed at its nominal input
+ * position plus the offset within {@link #SEEK_MILLIS} that best matches the natural
+ * continuation of the previous one, and cross faded with it over {@link #OVERLAP_MILLIS}.
+ *
+ * Streaming: {@link #write(byte[], int, int)} input of any length, {@link #read(byte[], int,
+ * int)} output until it returns 0, and {@link #flush()} at the end of stream. Nothing is
+ * allocated after construction. Not thread safe.
+ */
+
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class TimeStretcher {
+    public static final float MIN_SPEED = 0.5F;
+    public static final float MAX_SPEED = 3F;
+
+    static final int SEQUENCE_MILLIS = 40;
+    static final int SEEK_MILLIS = 15;
+    static final int OVERLAP_MILLIS = 8;
+    // offsets are searched with this step first, then refined around the best one
+    private static final int COARSE_SEEK_STEP = 4;
+
+    private final int mChannelCount;
+    private final int mFrameBytes;
+    private final int mSequenceFrames;
+    private final int mSeekFrames;
+    private final int mOverlapFrames;
+    // output frames of each sequence
+    private final int mOutputFrames;
+
+    // interleaved input, consumed from the head
+    private final short[] mInput;
+    private final int mInputCapacity;
+    private int mInputFrames;
+    // odd bytes of a frame split between writes
+    private final byte[] mPartialFrame;
+    private int mPartialBytes;
+
+    // natural continuation of the previous sequence
+    private final short[] mOverlap;
+    private final short[] mOutput;
+    private int mOutputPos;
+    private int mOutputEnd;
+
+    private float mSpeed = 1F;
+    private double mSkipFraction;
+    private boolean mFirstSequence = true;
+    private boolean mFlushing;
+    // zero frames still to append to push out the tail
+    private int mFlushFrames;
+
+    /**
+     * @param channelCount channels of interleaved input.
+     */
+    public TimeStretcher(int sampleRate, int channelCount) {
+        mChannelCount = channelCount;
+        mFrameBytes = channelCount * 2;
+        mSequenceFrames = sampleRate * SEQUENCE_MILLIS / 1000;
+        mSeekFrames = sampleRate * SEEK_MILLIS / 1000;
+        mOverlapFrames = sampleRate * OVERLAP_MILLIS / 1000;
+        mOutputFrames = mSequenceFrames - mOverlapFrames;
+        // room for the widest search window, or the longest skip
+        mInputCapacity = 2 * Math.max(mSeekFrames + mSequenceFrames,
+                (int) Math.ceil(mOutputFrames * MAX_SPEED) + 1);
+        mInput = new short[mInputCapacity * channelCount];
+        mPartialFrame = new byte[mFrameBytes];
+        mOverlap = new short[mOverlapFrames * channelCount];
+        mOutput = new short[mOutputFrames * channelCount];
+    }
+
+    /**
+     * @param speed {@link #MIN_SPEED}~{@link #MAX_SPEED}, 1 is the original speed, takes effect
+     * from the next sequence.
+     */
+    public void setSpeed(float speed) {
+        if (speed < MIN_SPEED || speed > MAX_SPEED) {
+            throw new IllegalArgumentException("speed " + speed + " out of [" + MIN_SPEED + ", "
+                                               + MAX_SPEED + "]");
+        }
+        mSpeed = speed;
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * Buffer input, call {@link #read(byte[], int, int)} until it returns 0 if not all input is
+     * accepted.
+     *
+     * @return bytes accepted, less than {@code length} only if the input buffer is full.
+     */
+    public int write(byte[] data, int offset, int length) {
+        int consumed = 0;
+        while (consumed < length && mInputFrames < mInputCapacity) {
+            if (mPartialBytes > 0 || length - consumed < mFrameBytes) {
+                int bytes = Math.min(mFrameBytes - mPartialBytes, length - consumed);
+                System.arraycopy(data, offset + consumed, mPartialFrame, mPartialBytes, bytes);
+                mPartialBytes += bytes;
+                consumed += bytes;
+                if (mPartialBytes == mFrameBytes) {
+                    appendFrames(mPartialFrame, 0, 1);
+                    mPartialBytes = 0;
+                }
+                continue;
+            }
+            int frames = Math.min((length - consumed) / mFrameBytes,
+                    mInputCapacity - mInputFrames);
+            appendFrames(data, offset + consumed, frames);
+            consumed += frames * mFrameBytes;
+        }
+        return consumed;
+    }
+
+    /**
+     * @return bytes of output, whole frames only, 0 if more input is needed.
+     */
+    public int read(byte[] data, int offset, int length) {
+        int frames = length / mFrameBytes;
+        int done = 0;
+        while (done < frames) {
+            if (mOutputPos == mOutputEnd && !nextSequence()) {
+                break;
+            }
+            int count = Math.min(frames - done, mOutputEnd - mOutputPos);
+            int samples = count * mChannelCount;
+            int src = mOutputPos * mChannelCount;
+            int dst = offset + done * mFrameBytes;
+            for (int i = 0; i < samples; i++) {
+                short sample = mOutput[src + i];
+                data[dst + 2 * i] = (byte) sample;
+                data[dst + 2 * i + 1] = (byte) (sample >> 8);
+            }
+            mOutputPos += count;
+            done += count;
+        }
+        return done * mFrameBytes;
+    }
+
+    /**
+     * End of stream, the buffered input is pushed out by some silence, read until 0 is returned,
+     * then the stretcher is ready for a new stream.
+     */
+    public void flush() {
+        mFlushing = true;
+        // what's left after it is consumed is silence only, even with the longest skip
+        mFlushFrames = mInputFrames > 0 ? mInputCapacity / 2 : 0;
+    }
+
+    /**
+     * Drop all buffered data and start a new stream.
+     */
+    public void clear() {
+        mInputFrames = 0;
+        mPartialBytes = 0;
+        mOutputPos = 0;
+        mOutputEnd = 0;
+        mSkipFraction = 0;
+        mFirstSequence = true;
+        mFlushing = false;
+        mFlushFrames = 0;
+    }
+
+    private void appendFrames(byte[] data, int offset, int frames) {
+        int samples = frames * mChannelCount;
+        int dst = mInputFrames * mChannelCount;
+        for (int i = 0; i < samples; i++) {
+            mInput[dst + i] = (short) ((data[offset + 2 * i] & 0xFF)
+                                       | (data[offset + 2 * i + 1] << 8));
+        }
+        mInputFrames += frames;
+    }
+
+    /**
+     * Stretch one sequence into the empty output buffer.
+     *
+     * @return false if more input is needed.
+     */
+    private boolean nextSequence() {
+        if (mFlushFrames > 0) {
+            int frames = Math.min(mFlushFrames, mInputCapacity - mInputFrames);
+            Arrays.fill(mInput, mInputFrames * mChannelCount,
+                    (mInputFrames + frames) * mChannelCount, (short) 0);
+            mInputFrames += frames;
+            mFlushFrames -= frames;
+        }
+        double skip = mOutputFrames * mSpeed + mSkipFraction;
+        int skipFrames = (int) skip;
+        if (mInputFrames < Math.max(mSeekFrames + mSequenceFrames, skipFrames)) {
+            if (mFlushing && mFlushFrames == 0) {
+                // output is empty here, clear drops the silence left only
+                clear();
+            }
+            return false;
+        }
+
+        int channels = mChannelCount;
+        int start = (mFirstSequence ? 0 : bestOffset()) * channels;
+        int overlap = mOverlapFrames * channels;
+        // cross fade the natural continuation of previous sequence into this one
+        if (mFirstSequence) {
+            System.arraycopy(mInput, start, mOutput, 0, overlap);
+        } else {
+            for (int i = 0; i < mOverlapFrames; i++) {
+                float fadeIn = (float) i / mOverlapFrames;
+                for (int c = 0; c < channels; c++) {
+                    int index = i * channels + c;
+                    mOutput[index] = (short) (mOverlap[index] * (1 - fadeIn)
+                                              + mInput[start + index] * fadeIn);
+                }
+            }
+        }
+        System.arraycopy(mInput, start + overlap, mOutput, overlap,
+                (mOutputFrames - mOverlapFrames) * channels);
+        System.arraycopy(mInput, start + mOutputFrames * channels, mOverlap, 0, overlap);
+        mOutputPos = 0;
+        mOutputEnd = mOutputFrames;
+
+        mSkipFraction = skip - skipFrames;
+        mInputFrames -= skipFrames;
+        System.arraycopy(mInput, skipFrames * channels, mInput, 0, mInputFrames * channels);
+        mFirstSequence = false;
+        return true;
+    }
+
+    /**
+     * @return offset in frames within the seek window, that the input there is most similar to
+     * the natural continuation of previous sequence, by normalized cross correlation.
+     */
+    private int bestOffset() {
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int offset = 0; offset <= mSeekFrames; offset += COARSE_SEEK_STEP) {
+            double score = similarity(offset);
+            if (score > bestScore) {
+                bestScore = score;
+                best = offset;
+            }
+        }
+        int from = Math.max(0, best - COARSE_SEEK_STEP + 1);
+        int to = Math.min(mSeekFrames, best + COARSE_SEEK_STEP - 1);
+        for (int offset = from; offset <= to; offset++) {
+            double score = similarity(offset);
+            if (score > bestScore) {
+                bestScore = score;
+                best = offset;
+            }
+        }
+        return best;
+    }
+
+    private double similarity(int offset) {
+        int start = offset * mChannelCount;
+        int samples = mOverlapFrames * mChannelCount;
+        long correlation = 0;
+        long energy = 0;
+        for (int i = 0; i < samples; i++) {
+            int sample = mInput[start + i];
+            correlation += mOverlap[i] * sample;
+            energy += sample * sample;
+        }
+        return correlation / Math.sqrt(energy + 1);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Piasy
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.piasy.rxandroidaudio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * RIFF/WAVE header of PCM data, the canonical 44 bytes one for integer PCM. Float data has an
+ * 18 bytes fmt chunk and a fact chunk, as non-PCM formats require.
+ */
+
+final class WavHeader {
+    static final int SIZE = 44;
+    static final int FORMAT_PCM = 1;
+    static final int FORMAT_IEEE_FLOAT = 3;
+
+    // cbSize of fmt, and a fact chunk with the sample frames count
+    private static final int NON_PCM_EXTRA_SIZE = 2 + 12;
+
+    private WavHeader() {
+        // no instance
+    }
+
+    /**
+     * @return header size of the format, where data starts.
+     */
+    static int size(int formatTag) {
+        return formatTag == FORMAT_PCM ? SIZE : SIZE + NON_PCM_EXTRA_SIZE;
+    }
+
+    /**
+     * Write header into {@code buffer} from its current position, with little endian order.
+     */
+    static void write(ByteBuffer buffer, int formatTag, int sampleRate, int channelCount,
+            int bitsPerSample, long dataSize) {
+        int blockAlign = channelCount * bitsPerSample / 8;
+        boolean pcm = formatTag == FORMAT_PCM;
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F')
+                .putInt((int) Math.min(dataSize + size(formatTag) - 8, 0xFFFFFFFFL))
+                .put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E')
+                .put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ')
+                .putInt(pcm ? 16 : 18)
+                .putShort((short) formatTag)
+                .putShort((short) channelCount)
+                .putInt(sampleRate)
+                .putInt(sampleRate * blockAlign)
+                .putShort((short) blockAlign)
+                .putShort((short) bitsPerSample);
+        if (!pcm) {
+            // cbSize
+            buffer.putShort((short) 0)
+                    .put((byte) 'f').put((byte) 'a').put((byte) 'c').put((byte) 't')
+                    .putInt(4)
+                    .putInt((int) Math.min(dataSize / blockAlign, 0xFFFFFFFFL));
+        }
+        buffer.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a')
+                .putInt((int) Math.min(dataSize, 0xFFFFFFFFL));
+        buffer.order(order);
+    }
+}